@@ -0,0 +1,129 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
+import com.assembla.jenkinsci.plugin.api.ApiFixtures;
+import com.assembla.jenkinsci.plugin.api.AssemblaPermission;
+import com.assembla.jenkinsci.plugin.api.TokenAssembla;
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import hudson.model.Item;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Permission checks on cache hits: AssemblaACL.hasPermission for admin,
+ * owner, member and watcher, the same check when session does not reference
+ * snapshot (SpaceSnapshotCache.get), access token lookup and mapping of role
+ * to Assembla permission. No Assembla API call is made, space snapshot is
+ * installed in realm cache and does not expire during benchmark.
+ *
+ * @author Damir Milovic
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcom.assembla.jenkinsci.plugin.SpaceSnapshotCache.cacheTime=86400000")
+public class PermissionBenchmark {
+
+    private static final String ADMIN = "admin";
+    // space members
+    @Param({"100", "10000"})
+    public int members;
+    private AssemblaSecurityRealm realm;
+    private AssemblaACL acl;
+    private AccessTokenManager tokenManager;
+    private AssemblaAuthenticationToken admin;
+    private AssemblaAuthenticationToken owner;
+    private AssemblaAuthenticationToken member;
+    private AssemblaAuthenticationToken watcher;
+
+    @Setup
+    public void setUp() {
+        realm = new AssemblaSecurityRealm(null, "client", "secret", ApiFixtures.SPACE_ID);
+        Map<String, String> roles = new HashMap<String, String>();
+        for (int i = 0; i < members; i++) {
+            roles.put(ApiFixtures.userId(i), ApiFixtures.role(i));
+        }
+        realm.getSnapshotCache().put(new SpaceSnapshot(ApiFixtures.SPACE_ID, AssemblaPermission.EDIT, AssemblaPermission.VIEW,
+                roles, System.currentTimeMillis()));
+        acl = new AssemblaACL(ADMIN, PermissionMatrix.createDefault(), realm);
+        TokenAssembla token = new TokenAssembla();
+        token.access_token = "access";
+        token.refresh_token = "refresh";
+        token.expires_in = 86400;
+        tokenManager = new AccessTokenManager(token);
+        admin = createToken(-1, ADMIN);
+        owner = createToken(0, null);
+        member = createToken(1, null);
+        watcher = createToken(3, null);
+        if (!acl.hasPermission(owner, Item.CONFIGURE) || !acl.hasPermission(member, Item.CONFIGURE)
+                || !acl.hasPermission(watcher, Item.READ) || acl.hasPermission(watcher, Item.CONFIGURE)) {
+            throw new IllegalStateException("unexpected permissions");
+        }
+    }
+
+    private AssemblaAuthenticationToken createToken(int index, String login) {
+        UserAssembla user = new UserAssembla();
+        user.id = ApiFixtures.userId(index);
+        user.login = (login != null) ? login : ApiFixtures.login(index);
+        return new AssemblaAuthenticationToken(user, tokenManager);
+    }
+
+    @Benchmark
+    public boolean admin() {
+        return acl.hasPermission(admin, Item.CONFIGURE);
+    }
+
+    @Benchmark
+    public boolean owner() {
+        return acl.hasPermission(owner, Item.CONFIGURE);
+    }
+
+    @Benchmark
+    public boolean member() {
+        return acl.hasPermission(member, Item.CONFIGURE);
+    }
+
+    @Benchmark
+    public boolean watcher() {
+        return acl.hasPermission(watcher, Item.READ);
+    }
+
+    /**
+     * Session does not reference snapshot (e.g. first check after login), snapshot is
+     * looked up in realm cache.
+     */
+    @Benchmark
+    public boolean memberWithoutSessionSnapshot() {
+        member.setSnapshot(null);
+        return acl.hasPermission(member, Item.CONFIGURE);
+    }
+
+    @Benchmark
+    public SpaceSnapshot cacheGet() {
+        return realm.getSnapshotCache().get(ApiFixtures.SPACE_ID, tokenManager);
+    }
+
+    @Benchmark
+    public String accessToken() {
+        return tokenManager.getAccessToken();
+    }
+
+    @Benchmark
+    public int getPermission() {
+        return AssemblaPermission.getPermission(ApiFixtures.role(1), AssemblaPermission.EDIT, AssemblaPermission.VIEW);
+    }
+}
@@ -0,0 +1,88 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.ApiFixtures;
+import com.assembla.jenkinsci.plugin.api.AssemblaPermission;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load time of space snapshot persisted under JENKINS_HOME (warm restart) and
+ * time of persisting it, for spaces with 10k and 100k members. Compare with
+ * DecodeBenchmark.userRoles, which is only part of cold reload from Assembla
+ * API.
+ *
+ * @author Damir Milovic
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotFileBenchmark {
+
+    @Param({"10000", "100000"})
+    public int members;
+    private File directory;
+    private SpaceSnapshot snapshot;
+    private SpaceSnapshotFile file;
+    private SpaceSnapshotFile writtenFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("snapshots", "");
+        directory.delete();
+        Map<String, String> roles = new HashMap<String, String>();
+        for (int i = 0; i < members; i++) {
+            roles.put(ApiFixtures.userId(i), ApiFixtures.role(i));
+        }
+        snapshot = new SpaceSnapshot(ApiFixtures.SPACE_ID, AssemblaPermission.EDIT, AssemblaPermission.VIEW, roles,
+                System.currentTimeMillis());
+        file = SpaceSnapshotFile.forSpace(directory, ApiFixtures.SPACE_ID);
+        file.write(snapshot);
+        writtenFile = SpaceSnapshotFile.forSpace(directory, "written");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.getFile().delete();
+        writtenFile.getFile().delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public SpaceSnapshot read() throws IOException {
+        return file.read();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        writtenFile.write(snapshot);
+    }
+
+    /**
+     * Whole restore after restart: snapshot is read by first permission
+     * check of cache created with realm.
+     */
+    @Benchmark
+    public boolean restore() {
+        SpaceSnapshotCache cache = new SpaceSnapshotCache(directory, new MemorySnapshotStore());
+        cache.restore(ApiFixtures.SPACE_ID);
+        return cache.contains(ApiFixtures.SPACE_ID);
+    }
+}
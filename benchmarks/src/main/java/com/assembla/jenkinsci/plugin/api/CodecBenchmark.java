@@ -0,0 +1,75 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import com.google.gson.Gson;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of Assembla entities by shared Gson with hand-written adapters
+ * (AssemblaJson) against new reflective Gson per decode (how entities were
+ * decoded before). Run with "-prof gc" to compare allocation per decode.
+ *
+ * @author Damir Milovic
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private final String token = ApiFixtures.token("access", "refresh", 3600);
+    private final String user = ApiFixtures.user(1);
+    private final String space = ApiFixtures.space(ApiFixtures.SPACE_ID);
+    // one page of user roles
+    private final String userRoles = ApiFixtures.userRoles(ApiService.PAGE_SIZE);
+
+    @Benchmark
+    public TokenAssembla tokenShared() {
+        return AssemblaJson.get().fromJson(token, TokenAssembla.class);
+    }
+
+    @Benchmark
+    public TokenAssembla tokenNewGson() {
+        return new Gson().fromJson(token, TokenAssembla.class);
+    }
+
+    @Benchmark
+    public UserAssembla userShared() {
+        return AssemblaJson.get().fromJson(user, UserAssembla.class);
+    }
+
+    @Benchmark
+    public UserAssembla userNewGson() {
+        return new Gson().fromJson(user, UserAssembla.class);
+    }
+
+    @Benchmark
+    public SpaceAssembla spaceShared() {
+        return AssemblaJson.get().fromJson(space, SpaceAssembla.class);
+    }
+
+    @Benchmark
+    public SpaceAssembla spaceNewGson() {
+        return new Gson().fromJson(space, SpaceAssembla.class);
+    }
+
+    @Benchmark
+    public UserRoleAssembla[] userRolesShared() {
+        return AssemblaJson.get().fromJson(userRoles, UserRoleAssembla[].class);
+    }
+
+    @Benchmark
+    public UserRoleAssembla[] userRolesNewGson() {
+        return new Gson().fromJson(userRoles, UserRoleAssembla[].class);
+    }
+}
@@ -0,0 +1,75 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of user_roles.json and users.json responses, read the way
+ * ApiService reads HTTP entity (UTF-8 stream into index). Run with "-prof gc"
+ * to see allocation rate per decoded response.
+ *
+ * @author Damir Milovic
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int entries;
+    private byte[] userRoles;
+    private byte[] users;
+
+    @Setup
+    public void setUp() throws IOException {
+        userRoles = ApiFixtures.userRoles(entries).getBytes("UTF-8");
+        users = ApiFixtures.users(entries).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public Map<String, String> userRoles() throws IOException {
+        final Map<String, String> roles = new HashMap<String, String>();
+        ApiService.readUserRoles(reader(userRoles), new UserRoleHandler() {
+
+            public void userRole(String userId, String role) {
+                roles.put(userId, role);
+            }
+        });
+        return roles;
+    }
+
+    @Benchmark
+    public Map<String, UserAssembla> users() throws IOException {
+        final Map<String, UserAssembla> result = new HashMap<String, UserAssembla>();
+        ApiService.readUsers(reader(users), new UserHandler() {
+
+            public void user(UserAssembla user) {
+                result.put(user.id, user);
+            }
+        });
+        return result;
+    }
+
+    static JsonReader reader(byte[] json) throws IOException {
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(json), "UTF-8"));
+    }
+}
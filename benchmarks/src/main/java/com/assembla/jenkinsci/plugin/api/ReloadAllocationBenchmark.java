@@ -0,0 +1,68 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocation per reload of space user roles when whole response was read into
+ * String and decoded as UserRoleAssembla[] by new Gson (how it was read
+ * before streaming). Run with "-prof gc" and compare gc.alloc.rate.norm (bytes
+ * per reload) with DecodeBenchmark.userRoles, the streaming decode ApiService
+ * does now.
+ *
+ * @author Damir Milovic
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReloadAllocationBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int entries;
+    private byte[] userRoles;
+
+    @Setup
+    public void setUp() throws IOException {
+        userRoles = ApiFixtures.userRoles(entries).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public Map<String, String> buffered() throws IOException {
+        // EntityUtils.toString()
+        Reader in = new InputStreamReader(new ByteArrayInputStream(userRoles), "UTF-8");
+        StringWriter content = new StringWriter();
+        char[] buffer = new char[4096];
+        for (int n; (n = in.read(buffer)) != -1;) {
+            content.write(buffer, 0, n);
+        }
+        UserRoleAssembla[] userRoleArray = new Gson().fromJson(content.toString(), UserRoleAssembla[].class);
+        Map<String, String> roles = new HashMap<String, String>();
+        for (UserRoleAssembla ur : userRoleArray) {
+            if (ur.user_id != null) {
+                roles.put(ur.user_id, ur.role);
+            }
+        }
+        return roles;
+    }
+}
@@ -0,0 +1,147 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.Authorization;
+import com.assembla.jenkinsci.plugin.api.ScriptCredentials;
+import com.assembla.jenkinsci.plugin.api.UnauthorizedException;
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.acegisecurity.BadCredentialsException;
+
+/**
+ * Authenticates scripts and Jenkins CLI by Assembla credentials sent with
+ * every request as basic authentication: API key as username and API secret
+ * as password, or "bearer" username and oAuth access token as password.
+ *
+ * Verified users are cached by hash of credentials (credentials themselves
+ * are not kept) for CACHE_TIME, so script sending thousands of requests is
+ * verified by Assembla API once per CACHE_TIME.
+ *
+ * @author Damir Milovic
+ */
+public class ApiKeyAuthenticator {
+
+    private static final Logger LOG = Logger.getLogger(ApiKeyAuthenticator.class.getName());
+    public static final String BEARER_USERNAME = "bearer";
+    // Time verified credentials are trusted without asking Assembla API
+    public static final long CACHE_TIME = Long.getLong(ApiKeyAuthenticator.class.getName() + ".cacheTime", 300000L); // 5 min
+    // Maximum number of cached credentials, least recently used are evicted
+    public static final int CACHE_SIZE = Integer.getInteger(ApiKeyAuthenticator.class.getName() + ".cacheSize", 1000);
+    private final SingleFlight<String, UserAssembla> verifications = new SingleFlight<String, UserAssembla>();
+    // credentials hash -> verified user, guarded by itself
+    private final Map<String, VerifiedUser> cache = new LinkedHashMap<String, VerifiedUser>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VerifiedUser> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static class VerifiedUser {
+
+        private final UserAssembla user;
+        private final long verifyTime;
+
+        VerifiedUser(UserAssembla user, long verifyTime) {
+            this.user = user;
+            this.verifyTime = verifyTime;
+        }
+    }
+
+    /**
+     * @throws BadCredentialsException if Assembla API rejects credentials
+     */
+    public AssemblaApiKeyAuthenticationToken authenticate(final String username, final String password) {
+        if (username == null || username.length() == 0 || password == null || password.length() == 0) {
+            throw new BadCredentialsException("Assembla API key and secret are required");
+        }
+        String key = hash(username, password);
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            VerifiedUser verified = cache.get(key);
+            if (verified != null && now - verified.verifyTime < CACHE_TIME) {
+                return new AssemblaApiKeyAuthenticationToken(verified.user, createCredentials(username, password));
+            }
+        }
+        // concurrent requests of the same script are verified once
+        UserAssembla user = verifications.execute(key, new Callable<UserAssembla>() {
+
+            public UserAssembla call() {
+                return verify(username, password);
+            }
+        });
+        if (user == null || user.login == null) {
+            throw new BadCredentialsException("Invalid Assembla API credentials");
+        }
+        synchronized (cache) {
+            cache.put(key, new VerifiedUser(user, now));
+        }
+        return new AssemblaApiKeyAuthenticationToken(user, createCredentials(username, password));
+    }
+
+    private static ScriptCredentials createCredentials(String username, String password) {
+        return username.equalsIgnoreCase(BEARER_USERNAME) ? ScriptCredentials.forAccessToken(password)
+                : ScriptCredentials.forApiKey(username, password);
+    }
+
+    /**
+     * Forgets verified credentials of user, e.g. user was removed from space.
+     */
+    public void invalidateUser(String userId) {
+        synchronized (cache) {
+            for (Iterator<VerifiedUser> it = cache.values().iterator(); it.hasNext();) {
+                UserAssembla user = it.next().user;
+                if (userId.equals(user.id) || userId.equalsIgnoreCase(user.login)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private UserAssembla verify(String username, String password) {
+        UserAssembla user;
+        if (username.equalsIgnoreCase(BEARER_USERNAME)) {
+            try {
+                user = ApiService.getUserByToken(Authorization.bearer(password));
+            } catch (UnauthorizedException ex) {
+                user = null;
+            }
+        } else {
+            user = ApiService.getUserByApiKey(username, password);
+        }
+        LOG.log(Level.FINE, "verify() - user {0}", (user != null) ? user.login : null);
+        return user;
+    }
+
+    private static String hash(String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(username.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            byte[] bytes = digest.digest(password.getBytes("UTF-8"));
+            StringBuilder result = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -1,14 +1,17 @@
 package com.assembla.jenkinsci.plugin;
 
-import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
 import com.assembla.jenkinsci.plugin.api.AssemblaPermission;
-import com.assembla.jenkinsci.plugin.api.SpaceAssembla;
-import com.assembla.jenkinsci.plugin.api.UserRoleAssembla;
+import com.assembla.jenkinsci.plugin.api.LatencyHistogram;
+import hudson.model.Hudson;
 import hudson.security.ACL;
+import hudson.security.AuthorizationStrategy;
 import hudson.security.Permission;
-import java.util.Calendar;
+import hudson.security.SecurityRealm;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.acegisecurity.Authentication;
@@ -18,26 +21,34 @@ import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
  * hudson.security.ACL implementation. Used for checking authenticated user
  * permissions. Jenkins permissions depends on user permission in Assembla
  * space. Since for every web request Jenkins is checking permission for several
- * items Assembla API calls have to be reduced. If last API calls are older than
- * USER_API_CALL_CACHE_TIME then API calls are invoked again,
+ * items Assembla API calls have to be reduced. Space permissions and user roles
+ * are kept in realm level SpaceSnapshotCache shared by all users. If snapshot is
+ * older than SpaceSnapshotCache.SNAPSHOT_CACHE_TIME then API calls are invoked again,
  *
- * @see getAssemblaPermissionFromAPI(). Otherwise existing permission is used.
+ * @see getSnapshotFromAPI(). Otherwise existing snapshot is used.
  *
  * @author Damir Milovic
  */
 public class AssemblaACL extends ACL {
 
     private static final Logger LOG = Logger.getLogger(AssemblaACL.class.getName());
-    // Cache time for userId from last time API calls.
-    private static final long USER_API_CALL_CACHE_TIME = 20000; // 20 sec
+    // time spent in hasPermission() of all ACLs
+    private static final LatencyHistogram PERMISSION_CHECKS = new LatencyHistogram();
     private final List<String> adminUserNameList;
+    // Jenkins permissions granted by Assembla permission
+    private PermissionMatrix permissionMatrix;
+    // Assembla space of items protected by this ACL, null for user's (realm) space
+    private final String spaceId;
+    // realm used instead of realm of Jenkins, e.g. in benchmarks
+    private transient AssemblaSecurityRealm realm;
 
     /**
      * Note: Constructor is called just once when plugin is setup (save or apply). It is not
      * invoked again when restarting plugin!
      */
-    public AssemblaACL(String adminUserNames) {
+    public AssemblaACL(String adminUserNames, PermissionMatrix permissionMatrix) {
         super();
+        this.permissionMatrix = permissionMatrix;
         LOG.fine("**************** AssemblaACL() ****************");
         adminUserNameList = new LinkedList<String>();
 
@@ -46,10 +57,40 @@ public class AssemblaACL extends ACL {
         for (String part : parts) {
             adminUserNameList.add(part.trim());
         }
+        spaceId = null;
+    }
+
+    /**
+     * Creates ACL resolving permissions in given realm, without running Jenkins.
+     */
+    AssemblaACL(String adminUserNames, PermissionMatrix permissionMatrix, AssemblaSecurityRealm realm) {
+        this(adminUserNames, permissionMatrix);
+        this.realm = realm;
+    }
+
+    /**
+     * Creates ACL of items mapped to Assembla space, sharing admin users and
+     * permission matrix with root ACL.
+     */
+    public AssemblaACL(AssemblaACL rootACL, String spaceId) {
+        super();
+        this.adminUserNameList = rootACL.adminUserNameList;
+        this.permissionMatrix = rootACL.permissionMatrix;
+        this.spaceId = spaceId;
+        this.realm = rootACL.realm;
     }
 
     @Override
     public boolean hasPermission(Authentication a, Permission permission) {
+        long start = System.nanoTime();
+        try {
+            return isGranted(a, permission);
+        } finally {
+            PERMISSION_CHECKS.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean isGranted(Authentication a, Permission permission) {
         boolean result = false;
 //        LOG.log(Level.FINE, "hasPermission()? id: {0}", permission.getId());
 //        LOG.log(Level.SEVERE, "{0}, owner: {1}", new Object[]{permission.toString(), permission.owner.toString()});
@@ -63,30 +104,12 @@ public class AssemblaACL extends ACL {
             
         } else if (a instanceof AssemblaAuthenticationToken) {
             AssemblaAuthenticationToken aat = (AssemblaAuthenticationToken) a;
-            int assemblaPermission = getAssemblaPermissionFromAPI(aat);
-            switch (assemblaPermission) {
-                case AssemblaPermission.ALL:
-                    // Jenkins All permissions
-                    result = true;
-                    break;
-                case AssemblaPermission.EDIT:
-                    // by default all permission except ADMIN
-                    result = true;
-                    if(permission.getId().equals("hudson.model.Hudson.Administer")){
-//                        LOG.log(Level.SEVERE, " - - - " + permission.toString());
-                        result = false;
-                    }
-                    
-                    
-                    break;
-                case AssemblaPermission.VIEW:
-                    // Jenkins read permissions
-                    result = isReadPermission(permission);
-                    break;
-                case AssemblaPermission.NONE:
-                default:
-                    result = false;
-            }
+            result = isGranted(getAssemblaAccess(aat), permission);
+        } else if (a instanceof AssemblaApiKeyAuthenticationToken) {
+            // script authenticated by API key, spaces are loaded with credentials sent by script
+            AssemblaApiKeyAuthenticationToken akt = (AssemblaApiKeyAuthenticationToken) a;
+            SpaceSnapshot snapshot = getSnapshotFromAPI(akt.getScriptCredentials());
+            result = isGranted((snapshot != null) ? snapshot.getAccess(akt.getUser().id) : AssemblaPermission.NONE, permission);
         } else if (a instanceof UsernamePasswordAuthenticationToken) {
             if (authenticatedUserName.equals(SYSTEM.getPrincipal())) {
                 // give system user full access
@@ -96,61 +119,119 @@ public class AssemblaACL extends ACL {
         return result;
     }
 
-    private int getAssemblaPermissionFromAPI(AssemblaAuthenticationToken aat) {
-
-        Calendar currentCal = Calendar.getInstance();
-
-        if ((currentCal.getTimeInMillis() - aat.getLastTimeApiCall()) > USER_API_CALL_CACHE_TIME) {
-            // reload data from Assembla API
-            LOG.fine("getAssemblaPermissionFromAPI() - - Reloading user data from Assembla API ...");
-            aat.getUser().setRole(null); // reset role (if user is not space member)
-            try {
-
-                // 1. refresh token just in case 15 mins inactivity
-                String access_token = ApiService.postRefreshAccessToken(
-                        aat.getTokensAssembla().refresh_token,
-                        aat.getTokensAssembla().clientId,
-                        aat.getTokensAssembla().clientSecret);
-                aat.getTokensAssembla().access_token = access_token; // set new access token.
-
-                // 2. get space data (need relation between role and permission)
-                SpaceAssembla space = ApiService.getSpace(aat.getTokensAssembla().access_token, aat.getUser().getSpaceId());
-
-                // 3. get user roles in selected space (need to determine role for authenticated user)
-                UserRoleAssembla[] userRoles = ApiService.getUserRoles(aat.getTokensAssembla().access_token, aat.getUser().getSpaceId());
-                if (userRoles != null) {
-                    for (UserRoleAssembla ur : userRoles) {
-                        if (aat.getUser().id.equals(ur.user_id)) {
-                            aat.getUser().setRole(ur.role);
-                            break;
-                        }
-                    }
+    /**
+     * @param access Assembla permission and role, see AssemblaPermission.toAccess()
+     */
+    private boolean isGranted(int access, Permission permission) {
+        return permissionMatrix.isGranted(AssemblaPermission.getPermission(access), AssemblaPermission.getRole(access), permission);
+    }
+
+    /**
+     * Permission in realm space is resolved from snapshot referenced by
+     * session while snapshot is current, without cache lookup.
+     *
+     * @return Assembla permission and role, see AssemblaPermission.toAccess()
+     */
+    private int getAssemblaAccess(AssemblaAuthenticationToken aat) {
+        SpaceSnapshot snapshot = null;
+        if (spaceId == null) {
+            snapshot = aat.getSnapshot();
+            AssemblaSecurityRealm realm = getSecurityRealm();
+            if (snapshot != null && (realm == null || !realm.getSnapshotCache().isCurrent(snapshot))) {
+                snapshot = null;
+            }
+        }
+        if (snapshot == null) {
+            snapshot = getSnapshotFromAPI(aat.getTokenManager());
+            if (spaceId == null) {
+                aat.setSnapshot(snapshot);
+            }
+        }
+        return (snapshot != null) ? snapshot.getAccess(aat.getUserId()) : AssemblaPermission.NONE;
+    }
+
+    /**
+     * @param tokenManager access token used if space is not loaded, null if
+     * only already loaded space can be used
+     * @return snapshot of space of this ACL, null if it can not be loaded
+     */
+    private SpaceSnapshot getSnapshotFromAPI(AccessTokenManager tokenManager) {
+        AssemblaSecurityRealm realm = getSecurityRealm();
+        if (realm == null) {
+            LOG.severe("getSnapshotFromAPI() - Assembla security realm is not configured");
+            return null;
+        }
+        String space = (spaceId != null) ? spaceId : realm.getSpaceId();
+        SpaceSnapshotCache snapshotCache = realm.getSnapshotCache();
+        SpaceSnapshot snapshot = null;
+        try {
+            if (tokenManager == null) {
+                snapshot = snapshotCache.getIfFresh(space);
+            } else if (!snapshotCache.contains(space)) {
+                // first check of not yet loaded space (e.g. dashboard listing jobs of many spaces),
+                // other missing spaces are loaded in background meanwhile instead of one by one
+                AssemblaAuthorizationStrategy strategy = getAuthorizationStrategy();
+                if (strategy != null) {
+                    Set<String> spaceIds = new HashSet<String>(strategy.getKnownSpaceIds());
+                    spaceIds.remove(space);
+                    snapshotCache.prefetch(spaceIds, tokenManager);
                 }
-                aat.getUser().setAssembla_permission(AssemblaPermission.getPermission(aat.getUser().getRole(), space));
-                // set new time
-                aat.setLastTimeApiCall(currentCal.getTimeInMillis());
-            } catch (Exception e) {
-                LOG.log(Level.SEVERE, "getAssemblaPermissionFromAPI()", e);
-                aat.getUser().setAssembla_permission(AssemblaPermission.NONE); // clear permission
             }
+            if (tokenManager != null) {
+                // get space data and user roles, shared by all users of the space.
+                // Access token is refreshed only if it is (nearly) expired
+                snapshot = snapshotCache.get(space, tokenManager);
+            }
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "getSnapshotFromAPI()", e);
         }
+        return snapshot;
+    }
 
+    /**
+     * @return durations of permission checks
+     */
+    public static LatencyHistogram getPermissionChecks() {
+        return PERMISSION_CHECKS;
+    }
 
-        return aat.getUser().getAssembla_permission();
+    private AssemblaSecurityRealm getSecurityRealm() {
+        if (realm != null) {
+            return realm;
+        }
+        SecurityRealm securityRealm = Hudson.getInstance().getSecurityRealm();
+        return (securityRealm instanceof AssemblaSecurityRealm) ? (AssemblaSecurityRealm) securityRealm : null;
     }
 
-    private boolean isReadPermission(Permission permission) {
-        if (permission.getId().equals("hudson.model.Hudson.Read")
-                || permission.getId().equals("hudson.model.Item.Read")) {
-              
-       
-            return true;
-        } else {
-            return false;
+    private static AssemblaAuthorizationStrategy getAuthorizationStrategy() {
+        Hudson hudson = Hudson.getInstance();
+        if (hudson == null) {
+            return null; // e.g. load test without Jenkins
         }
+        AuthorizationStrategy strategy = hudson.getAuthorizationStrategy();
+        return (strategy instanceof AssemblaAuthorizationStrategy) ? (AssemblaAuthorizationStrategy) strategy : null;
+    }
+
+    private Object readResolve() {
+        if (permissionMatrix == null) {
+            // configuration saved before permission matrix was configurable
+            permissionMatrix = PermissionMatrix.createDefault();
+        }
+        return this;
     }
 
     public List<String> getAdminUserNameList() {
         return adminUserNameList;
     }
+
+    public PermissionMatrix getPermissionMatrix() {
+        return permissionMatrix;
+    }
+
+    /**
+     * @return Assembla space of items protected by this ACL, null for root ACL.
+     */
+    public String getSpaceId() {
+        return spaceId;
+    }
 }
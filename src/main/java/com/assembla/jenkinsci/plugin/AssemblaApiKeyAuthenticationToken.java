@@ -0,0 +1,52 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.ScriptCredentials;
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.providers.AbstractAuthenticationToken;
+
+/**
+ * Authentication of script or CLI request verified by Assembla API key (or
+ * access token) sent with the request, see ApiKeyAuthenticator.
+ *
+ * @author Damir Milovic
+ */
+public class AssemblaApiKeyAuthenticationToken extends AbstractAuthenticationToken {
+
+    private final UserAssembla user;
+    // credentials sent with the request, used to load spaces; never serialized
+    private final transient ScriptCredentials credentials;
+
+    public AssemblaApiKeyAuthenticationToken(UserAssembla user, ScriptCredentials credentials) {
+        super(new GrantedAuthority[]{});
+        this.user = user;
+        this.credentials = credentials;
+        setAuthenticated(true);
+    }
+
+    public UserAssembla getUser() {
+        return user;
+    }
+
+    /**
+     * @return credentials of script, null if token was deserialized
+     */
+    public ScriptCredentials getScriptCredentials() {
+        return credentials;
+    }
+
+    @Override
+    public Object getCredentials() {
+        return "";
+    }
+
+    @Override
+    public Object getPrincipal() {
+        return user.login;
+    }
+
+    @Override
+    public String getName() {
+        return user.login;
+    }
+}
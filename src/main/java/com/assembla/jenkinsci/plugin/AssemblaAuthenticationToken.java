@@ -1,8 +1,9 @@
 package com.assembla.jenkinsci.plugin;
 
-import com.assembla.jenkinsci.plugin.api.ApiService;
-import com.assembla.jenkinsci.plugin.api.TokenAssembla;
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
 import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import hudson.model.Hudson;
+import hudson.security.SecurityRealm;
 import java.util.logging.Logger;
 import org.acegisecurity.GrantedAuthority;
 import org.acegisecurity.providers.AbstractAuthenticationToken;
@@ -10,56 +11,70 @@ import org.acegisecurity.providers.AbstractAuthenticationToken;
 /**
  * org.acegisecurity.providers.AbstractAuthenticationToken implementation.
  *
+ * Token is kept in HTTP session, so it holds only user id and login, access
+ * token pair and reference to shared snapshot of space. User details are
+ * looked up in realm UserDirectory and permissions in SpaceSnapshot shared by
+ * all sessions.
+ *
  * @author Damir Milovic
  */
 public class AssemblaAuthenticationToken extends AbstractAuthenticationToken {
 
     private static final Logger LOG = Logger.getLogger(AssemblaAuthenticationToken.class.getName());
-    private UserAssembla user = null;
-    private UserAssembla[] users;
-    private TokenAssembla tokensAssembla;
-    // used to check is API called recently to avoid calling Assembla API 
-    // in every AssemblaACL.hasPermission() invocation
-    private long lastTimeApiCall;
-
-    public AssemblaAuthenticationToken(TokenAssembla tokensAssembla, String spaceId) {
+    private final String userId;
+    private final String login;
+    private final AccessTokenManager tokenManager;
+    // snapshot of realm space permission of session was resolved from
+    private transient volatile SpaceSnapshot snapshot;
+
+    /**
+     * @param user user authenticated by access token (may not be space member)
+     */
+    public AssemblaAuthenticationToken(UserAssembla user, AccessTokenManager tokenManager) {
         super(new GrantedAuthority[]{});
         LOG.fine("*************** AssemblaAuthenticationToken() *****************");
-        this.tokensAssembla = tokensAssembla;
-        lastTimeApiCall = 0;
-
-        boolean authenticate = false;
-
-        if (tokensAssembla != null) {
-            user = ApiService.getUserByToken(tokensAssembla.access_token);
-            
-            // authenticate user even he is not space member (has no role in selected space)
-            if(user != null){
-                authenticate = true;
-                user.setSpaceId(spaceId); // preserve space Id (or space wiki name)
-            }
-            
-    
-        }
-        
-        setAuthenticated(authenticate);
+        this.userId = user.id;
+        this.login = user.login;
+        this.tokenManager = tokenManager;
+        setAuthenticated(true);
+    }
 
+    public AccessTokenManager getTokenManager() {
+        return tokenManager;
     }
 
-    public long getLastTimeApiCall() {
-        return lastTimeApiCall;
+    public String getUserId() {
+        return userId;
     }
 
-    public void setLastTimeApiCall(long lastTimeApiCall) {
-        this.lastTimeApiCall = lastTimeApiCall;
+    /**
+     * @return user from realm user directory, or user with id and login only if
+     * user is not in directory.
+     */
+    public UserAssembla getUser() {
+        UserAssembla user = null;
+        SecurityRealm realm = Hudson.getInstance().getSecurityRealm();
+        if (realm instanceof AssemblaSecurityRealm) {
+            user = ((AssemblaSecurityRealm) realm).getUserDirectory().getById(userId);
+        }
+        if (user == null) {
+            user = new UserAssembla();
+            user.id = userId;
+            user.login = login;
+        }
+        return user;
     }
 
-    public TokenAssembla getTokensAssembla() {
-        return tokensAssembla;
+    /**
+     * @return snapshot of realm space permission was resolved from last time,
+     * null if it was not resolved yet.
+     */
+    public SpaceSnapshot getSnapshot() {
+        return snapshot;
     }
 
-    public UserAssembla getUser() {
-        return user;
+    public void setSnapshot(SpaceSnapshot snapshot) {
+        this.snapshot = snapshot;
     }
 
     @Override
@@ -69,26 +84,11 @@ public class AssemblaAuthenticationToken extends AbstractAuthenticationToken {
 
     @Override
     public Object getPrincipal() {
-        return (user != null) ? user.login : null;
+        return login;
     }
 
     @Override
     public String getName() {
-        return (user != null) ? user.login : null;
-    }
-
-    public UserAssembla[] getUsers() {
-        return users;
-    }
-
-    public UserAssembla getUserByUsername(String login) {
-        UserAssembla result = null;
-        for (UserAssembla u : users) {
-            if (u.login.equalsIgnoreCase(login)) {
-                result = u;
-                break;
-            }
-        }
-        return result;
+        return login;
     }
 }
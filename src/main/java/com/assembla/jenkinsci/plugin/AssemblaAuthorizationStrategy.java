@@ -1,26 +1,58 @@
 package com.assembla.jenkinsci.plugin;
 
+import com.assembla.jenkinsci.plugin.api.AssemblaPermission;
 import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractItem;
 import hudson.model.Descriptor;
+import hudson.model.Job;
 import hudson.security.ACL;
 import hudson.security.AuthorizationStrategy;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 /**
- * Assembla implementation of hudson.security.AuthorizationStrategy
+ * Assembla implementation of hudson.security.AuthorizationStrategy.
+ * Jobs and folders can be mapped to other Assembla spaces than security realm
+ * space, either by AssemblaSpaceProperty of job or by folder mappings
+ * ("folder/path=space" lines). Items of the same space share one ACL.
+ *
  * @author Damir Milovic
  */
 public class AssemblaAuthorizationStrategy extends AuthorizationStrategy {
 
     private final AssemblaACL rootACL;
+    private final String spaceMappings;
+    // item full name prefix -> space id, longest prefix first
+    private transient List<Map.Entry<String, String>> itemSpaces;
+    // space id -> ACL of items in space
+    private transient ConcurrentHashMap<String, AssemblaACL> spaceACLs;
 
     @DataBoundConstructor
-    public AssemblaAuthorizationStrategy(String adminUserNames) {
-        rootACL = new AssemblaACL(adminUserNames);
+    public AssemblaAuthorizationStrategy(String adminUserNames, String nonePermissions, String viewPermissions,
+            String editPermissions, String allPermissions, String ownerPermissions, String memberPermissions,
+            String watcherPermissions, String spaceMappings) {
+        PermissionMatrix permissionMatrix = new PermissionMatrix(nonePermissions, viewPermissions, editPermissions, allPermissions,
+                ownerPermissions, memberPermissions, watcherPermissions);
+        rootACL = new AssemblaACL(adminUserNames, permissionMatrix);
+        this.spaceMappings = Util.fixEmptyAndTrim(spaceMappings);
+        readResolve();
+    }
 
+    private Object readResolve() {
+        spaceACLs = new ConcurrentHashMap<String, AssemblaACL>();
+        itemSpaces = parseSpaceMappings(spaceMappings);
+        return this;
     }
 
     @Override
@@ -28,6 +60,83 @@ public class AssemblaAuthorizationStrategy extends AuthorizationStrategy {
         return rootACL;
     }
 
+    @Override
+    public ACL getACL(Job<?, ?> project) {
+        AssemblaSpaceProperty property = project.getProperty(AssemblaSpaceProperty.class);
+        if (property != null && property.getSpaceId() != null) {
+            return getSpaceACL(property.getSpaceId());
+        }
+        return getACL((AbstractItem) project);
+    }
+
+    @Override
+    public ACL getACL(AbstractItem item) {
+        String fullName = item.getFullName();
+        for (Map.Entry<String, String> entry : itemSpaces) {
+            String prefix = entry.getKey();
+            if (fullName.equals(prefix) || fullName.startsWith(prefix + "/")) {
+                return getSpaceACL(entry.getValue());
+            }
+        }
+        return rootACL;
+    }
+
+    /**
+     * @return ACL of items mapped to Assembla space
+     */
+    public AssemblaACL getSpaceACL(String spaceId) {
+        AssemblaACL acl = spaceACLs.get(spaceId);
+        if (acl == null) {
+            acl = new AssemblaACL(rootACL, spaceId);
+            AssemblaACL existing = spaceACLs.putIfAbsent(spaceId, acl);
+            if (existing != null) {
+                acl = existing;
+            }
+        }
+        return acl;
+    }
+
+    /**
+     * @return spaces of mapped folders and of jobs checked so far, loaded
+     * together when permissions of not yet loaded space are checked.
+     */
+    public Set<String> getKnownSpaceIds() {
+        Set<String> result = new HashSet<String>(spaceACLs.keySet());
+        for (Map.Entry<String, String> entry : itemSpaces) {
+            result.add(entry.getValue());
+        }
+        return result;
+    }
+
+    public String getSpaceMappings() {
+        return spaceMappings;
+    }
+
+    private static List<Map.Entry<String, String>> parseSpaceMappings(String spaceMappings) {
+        Map<String, String> mappings = new HashMap<String, String>();
+        if (spaceMappings != null) {
+            for (String line : spaceMappings.split("\\r?\\n")) {
+                int separator = line.indexOf('=');
+                if (separator > 0) {
+                    String prefix = line.substring(0, separator).trim();
+                    String spaceId = line.substring(separator + 1).trim();
+                    if (prefix.length() > 0 && spaceId.length() > 0) {
+                        mappings.put(prefix, spaceId);
+                    }
+                }
+            }
+        }
+        List<Map.Entry<String, String>> result = new ArrayList<Map.Entry<String, String>>(mappings.entrySet());
+        // most specific (longest) folder first
+        Collections.sort(result, new Comparator<Map.Entry<String, String>>() {
+
+            public int compare(Map.Entry<String, String> o1, Map.Entry<String, String> o2) {
+                return o2.getKey().length() - o1.getKey().length();
+            }
+        });
+        return result;
+    }
+
     @Override
     public Collection<String> getGroups() {
         return new ArrayList<String>(0);
@@ -37,6 +146,34 @@ public class AssemblaAuthorizationStrategy extends AuthorizationStrategy {
         return StringUtils.join(rootACL.getAdminUserNameList().iterator(), ", ");
     }
 
+    public String getNonePermissions() {
+        return rootACL.getPermissionMatrix().getLevel(AssemblaPermission.NONE);
+    }
+
+    public String getViewPermissions() {
+        return rootACL.getPermissionMatrix().getLevel(AssemblaPermission.VIEW);
+    }
+
+    public String getEditPermissions() {
+        return rootACL.getPermissionMatrix().getLevel(AssemblaPermission.EDIT);
+    }
+
+    public String getAllPermissions() {
+        return rootACL.getPermissionMatrix().getLevel(AssemblaPermission.ALL);
+    }
+
+    public String getOwnerPermissions() {
+        return rootACL.getPermissionMatrix().getRole(AssemblaPermission.ROLE_OWNER);
+    }
+
+    public String getMemberPermissions() {
+        return rootACL.getPermissionMatrix().getRole(AssemblaPermission.ROLE_MEMBER);
+    }
+
+    public String getWatcherPermissions() {
+        return rootACL.getPermissionMatrix().getRole(AssemblaPermission.ROLE_WATCHER);
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<AuthorizationStrategy> {
 
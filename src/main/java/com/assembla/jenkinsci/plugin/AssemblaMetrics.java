@@ -0,0 +1,233 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
+import com.assembla.jenkinsci.plugin.api.ApiMetrics;
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.CacheStatistics;
+import com.assembla.jenkinsci.plugin.api.EndpointMetrics;
+import com.assembla.jenkinsci.plugin.api.LatencyHistogram;
+import com.assembla.jenkinsci.plugin.api.RateLimiter;
+import hudson.model.Hudson;
+import hudson.security.SecurityRealm;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.sf.json.JSONObject;
+
+/**
+ * Metrics of authentication and authorization: permission check time, cache
+ * hits and misses, space reloads, access token refreshes and Assembla API
+ * endpoints. Registered as JMX MBeans (domain com.assembla.jenkinsci) and
+ * published as JSON by AssemblaMetricsLink.
+ *
+ * @author Damir Milovic
+ */
+public class AssemblaMetrics implements AssemblaMetricsMBean {
+
+    private static final Logger LOG = Logger.getLogger(AssemblaMetrics.class.getName());
+    private static final String DOMAIN = "com.assembla.jenkinsci";
+
+    /**
+     * Registers metrics and metrics of every Assembla API endpoint in platform
+     * MBean server.
+     */
+    public static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new AssemblaMetrics(), getObjectName());
+            for (EndpointMetrics endpoint : ApiMetrics.getEndpoints()) {
+                server.registerMBean(endpoint, getObjectName(endpoint));
+            }
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "register() - metrics are not available in JMX", ex);
+        }
+    }
+
+    public static void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            unregister(server, getObjectName());
+            for (EndpointMetrics endpoint : ApiMetrics.getEndpoints()) {
+                unregister(server, getObjectName(endpoint));
+            }
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "unregister()", ex);
+        }
+    }
+
+    private static void unregister(MBeanServer server, ObjectName name) throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static ObjectName getObjectName() throws JMException {
+        return new ObjectName(DOMAIN + ":type=Metrics");
+    }
+
+    private static ObjectName getObjectName(EndpointMetrics endpoint) throws JMException {
+        return new ObjectName(DOMAIN + ":type=ApiEndpoint,name=" + endpoint.getName());
+    }
+
+    /**
+     * @return all metrics, including latency histograms
+     */
+    public JSONObject toJSON() {
+        LatencyHistogram permissionChecks = AssemblaACL.getPermissionChecks();
+        JSONObject endpoints = new JSONObject();
+        for (EndpointMetrics endpoint : ApiMetrics.getEndpoints()) {
+            endpoints.element(endpoint.getName(), new JSONObject()
+                    .element("calls", endpoint.getCalls())
+                    .element("errors", endpoint.getErrors())
+                    .element("notModified", endpoint.getNotModified())
+                    .element("latency", toJSON(endpoint.getLatency())));
+        }
+        RateLimiter rateLimiter = ApiService.getRateLimiter();
+        JSONObject queueDepth = new JSONObject();
+        for (RateLimiter.Priority priority : RateLimiter.Priority.values()) {
+            queueDepth.element(priority.name(), rateLimiter.getQueueDepth(priority));
+        }
+        return new JSONObject()
+                .element("permissionChecks", toJSON(permissionChecks))
+                .element("snapshotCache", toJSON(getSnapshotCacheStatistics())
+                        .element("size", getSnapshotCacheSize())
+                        .element("sharedHits", getSnapshotCacheSharedHits())
+                        .element("reloadsInFlight", getReloadsInFlight()))
+                .element("userDirectory", toJSON(getUserDirectoryStatistics())
+                        .element("size", getUserDirectorySize()))
+                .element("accessTokens", new JSONObject()
+                        .element("refreshes", getTokenRefreshCount())
+                        .element("avoidedRefreshes", getAvoidedTokenRefreshCount()))
+                .element("circuitBreaker", new JSONObject()
+                        .element("state", getCircuitState())
+                        .element("rejected", getCircuitRejectedCount()))
+                .element("rateLimiterQueueDepth", queueDepth)
+                .element("endpoints", endpoints);
+    }
+
+    private static JSONObject toJSON(LatencyHistogram histogram) {
+        JSONObject buckets = new JSONObject();
+        for (Map.Entry<String, Long> bucket : histogram.getBuckets().entrySet()) {
+            buckets.element(bucket.getKey(), bucket.getValue().longValue());
+        }
+        return new JSONObject()
+                .element("count", histogram.getCount())
+                .element("meanMillis", histogram.getMeanMillis())
+                .element("p50Millis", histogram.getPercentileMillis(0.5))
+                .element("p99Millis", histogram.getPercentileMillis(0.99))
+                .element("maxMillis", histogram.getMaxMillis())
+                .element("buckets", buckets);
+    }
+
+    private static JSONObject toJSON(CacheStatistics statistics) {
+        JSONObject result = new JSONObject();
+        if (statistics != null) {
+            result.element("hits", statistics.getHits())
+                    .element("staleHits", statistics.getStaleHits())
+                    .element("misses", statistics.getMisses())
+                    .element("hitRatio", statistics.getHitRatio());
+        }
+        return result;
+    }
+
+    public long getPermissionCheckCount() {
+        return AssemblaACL.getPermissionChecks().getCount();
+    }
+
+    public double getPermissionCheckMeanMillis() {
+        return AssemblaACL.getPermissionChecks().getMeanMillis();
+    }
+
+    public double getPermissionCheckP99Millis() {
+        return AssemblaACL.getPermissionChecks().getPercentileMillis(0.99);
+    }
+
+    public double getPermissionCheckMaxMillis() {
+        return AssemblaACL.getPermissionChecks().getMaxMillis();
+    }
+
+    public long getSnapshotCacheHits() {
+        CacheStatistics statistics = getSnapshotCacheStatistics();
+        return (statistics != null) ? statistics.getHits() : 0;
+    }
+
+    public long getSnapshotCacheStaleHits() {
+        CacheStatistics statistics = getSnapshotCacheStatistics();
+        return (statistics != null) ? statistics.getStaleHits() : 0;
+    }
+
+    public long getSnapshotCacheMisses() {
+        CacheStatistics statistics = getSnapshotCacheStatistics();
+        return (statistics != null) ? statistics.getMisses() : 0;
+    }
+
+    public long getSnapshotCacheSharedHits() {
+        AssemblaSecurityRealm realm = getSecurityRealm();
+        return (realm != null) ? realm.getSnapshotCache().getSharedHitCount() : 0;
+    }
+
+    public int getSnapshotCacheSize() {
+        AssemblaSecurityRealm realm = getSecurityRealm();
+        return (realm != null) ? realm.getSnapshotCache().size() : 0;
+    }
+
+    public int getReloadsInFlight() {
+        AssemblaSecurityRealm realm = getSecurityRealm();
+        return (realm != null) ? realm.getSnapshotCache().getReloadsInFlight() : 0;
+    }
+
+    public long getUserDirectoryHits() {
+        CacheStatistics statistics = getUserDirectoryStatistics();
+        return (statistics != null) ? statistics.getHits() : 0;
+    }
+
+    public long getUserDirectoryMisses() {
+        CacheStatistics statistics = getUserDirectoryStatistics();
+        return (statistics != null) ? statistics.getMisses() : 0;
+    }
+
+    public int getUserDirectorySize() {
+        AssemblaSecurityRealm realm = getSecurityRealm();
+        return (realm != null) ? realm.getUserDirectory().size() : 0;
+    }
+
+    public long getTokenRefreshCount() {
+        return AccessTokenManager.getRefreshCount();
+    }
+
+    public long getAvoidedTokenRefreshCount() {
+        return AccessTokenManager.getAvoidedRefreshCount();
+    }
+
+    public String getCircuitState() {
+        return ApiService.getCircuitBreaker().getState().name();
+    }
+
+    public long getCircuitRejectedCount() {
+        return ApiService.getCircuitBreaker().getRejectedCount();
+    }
+
+    public int getRateLimiterQueueDepth() {
+        return ApiService.getRateLimiter().getQueueDepth();
+    }
+
+    private static CacheStatistics getSnapshotCacheStatistics() {
+        AssemblaSecurityRealm realm = getSecurityRealm();
+        return (realm != null) ? realm.getSnapshotCache().getStatistics() : null;
+    }
+
+    private static CacheStatistics getUserDirectoryStatistics() {
+        AssemblaSecurityRealm realm = getSecurityRealm();
+        return (realm != null) ? realm.getUserDirectory().getStatistics() : null;
+    }
+
+    private static AssemblaSecurityRealm getSecurityRealm() {
+        Hudson hudson = Hudson.getInstance();
+        SecurityRealm realm = (hudson != null) ? hudson.getSecurityRealm() : null;
+        return (realm instanceof AssemblaSecurityRealm) ? (AssemblaSecurityRealm) realm : null;
+    }
+}
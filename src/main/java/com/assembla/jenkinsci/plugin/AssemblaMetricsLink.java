@@ -0,0 +1,44 @@
+package com.assembla.jenkinsci.plugin;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.ManagementLink;
+import java.io.IOException;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * "Assembla metrics" link on Manage Jenkins page, returning AssemblaMetrics
+ * as JSON (JENKINS_URL/assembla-metrics/). Available to administrators only.
+ *
+ * @author Damir Milovic
+ */
+@Extension
+public class AssemblaMetricsLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "monitor.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "assembla-metrics";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Assembla metrics";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Assembla API calls, permission checks and cache statistics (JSON)";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(new AssemblaMetrics().toJSON().toString(2));
+    }
+}
@@ -0,0 +1,45 @@
+package com.assembla.jenkinsci.plugin;
+
+/**
+ * JMX view of AssemblaMetrics.
+ *
+ * @author Damir Milovic
+ */
+public interface AssemblaMetricsMBean {
+
+    long getPermissionCheckCount();
+
+    double getPermissionCheckMeanMillis();
+
+    double getPermissionCheckP99Millis();
+
+    double getPermissionCheckMaxMillis();
+
+    long getSnapshotCacheHits();
+
+    long getSnapshotCacheStaleHits();
+
+    long getSnapshotCacheMisses();
+
+    long getSnapshotCacheSharedHits();
+
+    int getSnapshotCacheSize();
+
+    int getReloadsInFlight();
+
+    long getUserDirectoryHits();
+
+    long getUserDirectoryMisses();
+
+    int getUserDirectorySize();
+
+    long getTokenRefreshCount();
+
+    long getAvoidedTokenRefreshCount();
+
+    String getCircuitState();
+
+    long getCircuitRejectedCount();
+
+    int getRateLimiterQueueDepth();
+}
@@ -1,8 +1,13 @@
 
 package com.assembla.jenkinsci.plugin;
 
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
+import com.assembla.jenkinsci.plugin.api.ApiFuture;
 import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.AssemblaHttpClient;
+import com.assembla.jenkinsci.plugin.api.Authorization;
 import com.assembla.jenkinsci.plugin.api.TokenAssembla;
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
 import com.thoughtworks.xstream.converters.ConversionException;
 import com.thoughtworks.xstream.converters.Converter;
 import com.thoughtworks.xstream.converters.MarshallingContext;
@@ -12,10 +17,15 @@ import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.Descriptor;
+import hudson.model.Hudson;
 import hudson.model.User;
 import hudson.security.GroupDetails;
 import hudson.security.SecurityRealm;
+import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.acegisecurity.Authentication;
@@ -23,6 +33,7 @@ import org.acegisecurity.AuthenticationException;
 import org.acegisecurity.AuthenticationManager;
 import org.acegisecurity.BadCredentialsException;
 import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
 import org.acegisecurity.userdetails.UserDetails;
 import org.acegisecurity.userdetails.UserDetailsService;
 import org.acegisecurity.userdetails.UsernameNotFoundException;
@@ -45,11 +56,26 @@ public class AssemblaSecurityRealm extends SecurityRealm {
     
     private static final String REFERER_ATTRIBUTE = AssemblaSecurityRealm.class.getName() + ".referer";
     private static final Logger LOGGER = Logger.getLogger(AssemblaSecurityRealm.class.getName());
+    // Shared secret of invalidation requests sent by Assembla webhooks (not needed for Jenkins administrators)
+    private static final String INVALIDATION_SECRET = System.getProperty(AssemblaSecurityRealm.class.getName() + ".invalidationSecret");
+    private static final String INVALIDATION_SECRET_HEADER = "X-Assembla-Secret";
+    // Directory shared by controllers protected by the same space, used by FileSnapshotStore
+    private static final String SHARED_SNAPSHOT_DIRECTORY = System.getProperty(FileSnapshotStore.class.getName() + ".directory");
+    // Custom SnapshotStore implementation (class name)
+    private static final String SNAPSHOT_STORE_CLASS = System.getProperty(SnapshotStore.class.getName());
+    // snapshots shared by all realm instances (realm is recreated when configuration is saved)
+    private static SnapshotStore snapshotStore;
     
     private String apiUri;
     private String clientID;
     private String clientSecret;
     private String spaceId;
+    // space permissions shared by all sessions
+    private transient final SpaceSnapshotCache snapshotCache = new SpaceSnapshotCache(getSnapshotDirectory(), getSnapshotStore());
+    // users of space, created lazily (spaceId is not known yet when unmarshalling)
+    private transient UserDirectory userDirectory;
+    // verified credentials of scripts, created lazily
+    private transient ApiKeyAuthenticator apiKeyAuthenticator;
 
     @DataBoundConstructor
     public AssemblaSecurityRealm(String apiUri, String clientID, String clientSecret, String spaceId) {
@@ -59,7 +85,10 @@ public class AssemblaSecurityRealm extends SecurityRealm {
         this.clientID = Util.fixEmptyAndTrim(clientID);
         this.clientSecret = Util.fixEmptyAndTrim(clientSecret);
         this.spaceId = Util.fixEmptyAndTrim(spaceId);
-        
+        ApiService.setApiUri(this.apiUri);
+        ApiService.setClient(this.clientID, this.clientSecret);
+        // realm reconfigured, drop pooled connections opened with previous settings once requests using them finish
+        AssemblaHttpClient.replace();
     }
 
     private AssemblaSecurityRealm() {
@@ -71,6 +100,7 @@ public class AssemblaSecurityRealm extends SecurityRealm {
      */
     private void setApiUri(String apiUri) {
         this.apiUri = apiUri;
+        ApiService.setApiUri(apiUri);
     }
 
     /**
@@ -78,6 +108,7 @@ public class AssemblaSecurityRealm extends SecurityRealm {
      */
     private void setClientID(String clientID) {
         this.clientID = clientID;
+        ApiService.setClient(this.clientID, this.clientSecret);
     }
 
     /**
@@ -85,6 +116,7 @@ public class AssemblaSecurityRealm extends SecurityRealm {
      */
     private void setClientSecret(String clientSecret) {
         this.clientSecret = clientSecret;
+        ApiService.setClient(this.clientID, this.clientSecret);
     }
 /**
      * @param spaceId the clientSecret to set
@@ -220,6 +252,57 @@ public class AssemblaSecurityRealm extends SecurityRealm {
         return spaceId;
     }
 
+    public SpaceSnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
+    /**
+     * @return directory of persisted space snapshots (JENKINS_HOME/assembla-oauth)
+     */
+    private static File getSnapshotDirectory() {
+        Hudson hudson = Hudson.getInstance();
+        return (hudson != null) ? new File(hudson.getRootDir(), "assembla-oauth") : null;
+    }
+
+    private static synchronized SnapshotStore getSnapshotStore() {
+        if (snapshotStore == null) {
+            snapshotStore = createSnapshotStore();
+        }
+        return snapshotStore;
+    }
+
+    private static SnapshotStore createSnapshotStore() {
+        if (SNAPSHOT_STORE_CLASS != null) {
+            try {
+                // implementation can be provided by other plugin
+                Hudson hudson = Hudson.getInstance();
+                ClassLoader classLoader = (hudson != null && hudson.getPluginManager() != null)
+                        ? hudson.getPluginManager().uberClassLoader : AssemblaSecurityRealm.class.getClassLoader();
+                return (SnapshotStore) Class.forName(SNAPSHOT_STORE_CLASS, true, classLoader).newInstance();
+            } catch (Exception ex) {
+                LOGGER.log(Level.SEVERE, "Can not create snapshot store " + SNAPSHOT_STORE_CLASS + ", snapshots are not shared", ex);
+            }
+        } else if (SHARED_SNAPSHOT_DIRECTORY != null) {
+            LOGGER.log(Level.INFO, "Space snapshots are shared in {0}", SHARED_SNAPSHOT_DIRECTORY);
+            return new FileSnapshotStore(new File(SHARED_SNAPSHOT_DIRECTORY));
+        }
+        return new MemorySnapshotStore();
+    }
+
+    public synchronized UserDirectory getUserDirectory() {
+        if (userDirectory == null) {
+            userDirectory = new UserDirectory(spaceId, getSnapshotDirectory());
+        }
+        return userDirectory;
+    }
+
+    public synchronized ApiKeyAuthenticator getApiKeyAuthenticator() {
+        if (apiKeyAuthenticator == null) {
+            apiKeyAuthenticator = new ApiKeyAuthenticator();
+        }
+        return apiKeyAuthenticator;
+    }
+
     /**
      * Redirect to Assembla oAuth request by authorization type = code.
      * @param request
@@ -247,19 +330,121 @@ public class AssemblaSecurityRealm extends SecurityRealm {
             LOGGER.log(Level.SEVERE, "doFinishLogin() code = null");
             return HttpResponses.redirectToContextRoot();
         }
-        TokenAssembla tokensAssembla = ApiService.getTokenByAuthorizationCode(code, clientID, clientSecret);
-        if (tokensAssembla != null && tokensAssembla.access_token != null && tokensAssembla.access_token.trim().length() > 0) {
-            AssemblaAuthenticationToken auth = new AssemblaAuthenticationToken(tokensAssembla, spaceId);
+        AssemblaAuthenticationToken auth = login(code);
+        if (auth != null) {
             SecurityContextHolder.getContext().setAuthentication(auth);
             User u = User.current();
             u.setFullName(auth.getName());
-        } else {
-            LOGGER.log(Level.SEVERE, "doFinishLogin() accessToken = null");
         }
 
         return HttpResponses.redirectToContextRoot();   // referer should be always there, but be defensive
     }
 
+    /**
+     * Exchanges authorization code for access token and loads user and
+     * permissions in realm space.
+     *
+     * @return authenticated user, null if authorization code or access token
+     * was not accepted
+     */
+    AssemblaAuthenticationToken login(String code) {
+        TokenAssembla tokensAssembla = ApiService.getTokenByAuthorizationCode(code, clientID, clientSecret);
+        if (tokensAssembla == null || tokensAssembla.access_token == null || tokensAssembla.access_token.trim().length() == 0) {
+            LOGGER.log(Level.SEVERE, "doFinishLogin() accessToken = null");
+            return null;
+        }
+        AccessTokenManager tokenManager = new AccessTokenManager(tokensAssembla);
+        // user is loaded while request thread loads space and user roles, so first
+        // page after login does not wait for space permissions. Request thread waits
+        // for space itself (it may join reload started by other login), API threads
+        // never wait for each other.
+        ApiFuture<UserAssembla> userFuture = tokenManager.executeAsync(new AccessTokenManager.ApiCall<UserAssembla>() {
+
+            public UserAssembla call(Authorization authorization) {
+                return ApiService.getUserByToken(authorization);
+            }
+        }, ApiService.CALL_TIMEOUT);
+        SpaceSnapshot snapshot = null;
+        if (spaceId != null) {
+            try {
+                snapshot = snapshotCache.get(spaceId, tokenManager);
+            } catch (RuntimeException ex) {
+                // permissions are loaded again by first permission check
+                LOGGER.log(Level.WARNING, "doFinishLogin() - space " + spaceId + " was not loaded", ex);
+            }
+        }
+        UserAssembla user = userFuture.await();
+        if (user == null) {
+            // user is null also if API call was rejected (too many calls waiting)
+            LOGGER.log(Level.SEVERE, "doFinishLogin() user = null");
+            return null;
+        }
+        // authenticate user even if user is not space member (has no role in selected space)
+        AssemblaAuthenticationToken auth = new AssemblaAuthenticationToken(user, tokenManager);
+        auth.setSnapshot(snapshot);
+        getUserDirectory().add(user, tokenManager);
+        return auth;
+    }
+
+    /**
+     * Invalidates cached permissions when Assembla space membership changes, so
+     * they can be cached for long time. Called by Jenkins administrator or by
+     * Assembla webhook with shared secret (invalidationSecret system property,
+     * sent as X-Assembla-Secret header), e.g. POST to
+     * JENKINS_URL/securityRealm/invalidate?space=space_id&amp;user=user_id_or_login
+     *
+     * Invalidated space is evicted and reloaded, invalidated user is removed
+     * from all space snapshots (no permissions) and from user directory until
+     * spaces of the user and directory are reloaded in background.
+     */
+    public HttpResponse doInvalidate(StaplerRequest request) {
+        if (!"POST".equals(request.getMethod())) {
+            return HttpResponses.error(405, "POST is required");
+        }
+        if (!isInvalidationAllowed(request)) {
+            LOGGER.log(Level.WARNING, "doInvalidate() - request is not authorized");
+            return HttpResponses.forbidden();
+        }
+        String space = Util.fixEmptyAndTrim(request.getParameter("space"));
+        String user = Util.fixEmptyAndTrim(request.getParameter("user"));
+        if (space == null && user == null) {
+            return HttpResponses.error(400, "space or user parameter is required");
+        }
+        // reload with access token of calling administrator or of last logged in user
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        AccessTokenManager tokenManager = (authentication instanceof AssemblaAuthenticationToken)
+                ? ((AssemblaAuthenticationToken) authentication).getTokenManager()
+                : getUserDirectory().getTokenManager();
+        if (space != null) {
+            snapshotCache.invalidate(space, tokenManager);
+        }
+        if (user != null) {
+            UserAssembla removed = getUserDirectory().remove(user);
+            Set<String> spaces = snapshotCache.invalidateUser((removed != null) ? removed.id : user, tokenManager);
+            getApiKeyAuthenticator().invalidateUser((removed != null) ? removed.id : user);
+            getUserDirectory().scheduleRefresh();
+            LOGGER.log(Level.INFO, "doInvalidate() - user {0} invalidated in spaces {1}", new Object[]{user, spaces});
+        }
+        return HttpResponses.ok();
+    }
+
+    private static boolean isInvalidationAllowed(StaplerRequest request) {
+        if (Hudson.getInstance().hasPermission(Hudson.ADMINISTER)) {
+            return true;
+        }
+        if (INVALIDATION_SECRET == null || INVALIDATION_SECRET.length() == 0) {
+            return false;
+        }
+        // not accepted as parameter, so it does not end up in access logs
+        String secret = request.getHeader(INVALIDATION_SECRET_HEADER);
+        try {
+            // constant time comparison
+            return secret != null && MessageDigest.isEqual(secret.getBytes("UTF-8"), INVALIDATION_SECRET.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            return false;
+        }
+    }
+
 
 
     /*
@@ -281,6 +466,13 @@ public class AssemblaSecurityRealm extends SecurityRealm {
                 if (authentication instanceof AssemblaAuthenticationToken ) {
                     return authentication;
                 }
+                if (authentication instanceof UsernamePasswordAuthenticationToken) {
+                    // script or CLI sending Assembla API key (or access token) as basic authentication
+                    AssemblaApiKeyAuthenticationToken result = getApiKeyAuthenticator().authenticate(
+                            String.valueOf(authentication.getPrincipal()), String.valueOf(authentication.getCredentials()));
+                    getUserDirectory().addIfAbsent(result.getUser());
+                    return result;
+                }
     
                 throw new BadCredentialsException(
                         "Unexpected authentication type: " + authentication);
@@ -288,7 +480,7 @@ public class AssemblaSecurityRealm extends SecurityRealm {
         }, new UserDetailsService() {
             public UserDetails loadUserByUsername(String username)
                     throws UsernameNotFoundException, DataAccessException {
-                throw new UsernameNotFoundException(username);
+                return AssemblaSecurityRealm.this.loadUserByUsername(username);
             }
         });
     }
@@ -320,14 +512,13 @@ public class AssemblaSecurityRealm extends SecurityRealm {
         }
     }
 
+    /**
+     * Looks up user in realm UserDirectory, so it works from any thread (not
+     * only for authenticated user request).
+     */
     @Override
     public UserDetails loadUserByUsername(String username){
-        UserDetails result = null;
-        AssemblaAuthenticationToken authToken = (AssemblaAuthenticationToken) SecurityContextHolder.getContext().getAuthentication();
-        if (authToken == null) {
-            throw new UsernameNotFoundException("AssemblaAuthenticationToken = null, no known user: " + username);
-        }
-        result = authToken.getUserByUsername(username);
+        UserDetails result = getUserDirectory().getByLogin(username);
         if (result == null) {
             throw new UsernameNotFoundException("User does not exist for login: " + username);
         }
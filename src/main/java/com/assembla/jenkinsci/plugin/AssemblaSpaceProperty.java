@@ -0,0 +1,46 @@
+package com.assembla.jenkinsci.plugin;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Maps job to Assembla space. Permissions of the job are then based on user
+ * permission in this space instead of security realm space.
+ *
+ * @author Damir Milovic
+ */
+public class AssemblaSpaceProperty extends JobProperty<Job<?, ?>> {
+
+    private final String spaceId;
+
+    @DataBoundConstructor
+    public AssemblaSpaceProperty(String spaceId) {
+        this.spaceId = Util.fixEmptyAndTrim(spaceId);
+    }
+
+    public String getSpaceId() {
+        return spaceId;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends JobPropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "Assembla space";
+        }
+
+        @Override
+        public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            AssemblaSpaceProperty property = (AssemblaSpaceProperty) super.newInstance(req, formData);
+            // no space set, job uses security realm space
+            return (property != null && property.getSpaceId() != null) ? property : null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.assembla.jenkinsci.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SnapshotStore in directory shared by Jenkins controllers (e.g. NFS mount).
+ * Snapshots are written as SpaceSnapshotFile, reload of space is guarded by
+ * file lock of "space-id.lock" file, so only one controller calls Assembla API
+ * at a time and others read its snapshot.
+ *
+ * @author Damir Milovic
+ */
+public class FileSnapshotStore implements SnapshotStore {
+
+    private static final Logger LOG = Logger.getLogger(FileSnapshotStore.class.getName());
+    // Interval of file lock attempts while other controller reloads space
+    private static final long LOCK_POLL_INTERVAL = Long.getLong(FileSnapshotStore.class.getName() + ".lockPollInterval", 100L); // ms
+    // file locks are held by JVM, threads of this JVM have to be serialized by memory lock
+    private static final MemorySnapshotStore LOCAL_LOCKS = new MemorySnapshotStore();
+    private final File directory;
+    // space id -> last snapshot read from file, file is read again only when it was replaced
+    private final ConcurrentMap<String, CachedFile> files = new ConcurrentHashMap<String, CachedFile>();
+
+    private static class CachedFile {
+
+        final long lastModified;
+        final long length;
+        final SpaceSnapshot snapshot;
+
+        CachedFile(long lastModified, long length, SpaceSnapshot snapshot) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.snapshot = snapshot;
+        }
+    }
+
+    public FileSnapshotStore(File directory) {
+        this.directory = directory;
+    }
+
+    public SpaceSnapshot get(String spaceId) throws IOException {
+        SpaceSnapshotFile file = SpaceSnapshotFile.forSpace(directory, spaceId);
+        long lastModified = file.getFile().lastModified();
+        long length = file.getFile().length();
+        if (lastModified == 0) {
+            return null; // not written yet
+        }
+        CachedFile cached = files.get(spaceId);
+        if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+            return cached.snapshot;
+        }
+        // written by other controller, it is as valid as if it was loaded here
+        SpaceSnapshot snapshot = file.read(false);
+        if (snapshot != null && !spaceId.equals(snapshot.getSpaceId())) {
+            snapshot = null;
+        }
+        files.put(spaceId, new CachedFile(lastModified, length, snapshot));
+        return snapshot;
+    }
+
+    public void put(SpaceSnapshot snapshot) throws IOException {
+        SpaceSnapshotFile file = SpaceSnapshotFile.forSpace(directory, snapshot.getSpaceId());
+        file.write(snapshot);
+        files.put(snapshot.getSpaceId(), new CachedFile(file.getFile().lastModified(), file.getFile().length(), snapshot));
+    }
+
+    public Lock lock(String spaceId, long timeout) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        final Lock localLock = LOCAL_LOCKS.lock(spaceId, timeout);
+        if (localLock == null) {
+            return null;
+        }
+        boolean locked = false;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can not create directory " + directory);
+            }
+            final RandomAccessFile lockFile = new RandomAccessFile(SnapshotFiles.forSpace(directory, "space-", spaceId, ".lock"), "rw");
+            try {
+                FileLock fileLock = lockFile.getChannel().tryLock();
+                while (fileLock == null && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(LOCK_POLL_INTERVAL);
+                    fileLock = lockFile.getChannel().tryLock();
+                }
+                if (fileLock == null) {
+                    return null;
+                }
+                locked = true;
+                return new Lock() {
+
+                    public void release() {
+                        try {
+                            // closing file releases file lock
+                            lockFile.close();
+                        } catch (IOException ex) {
+                            LOG.log(Level.WARNING, "release() - can not close lock file of space", ex);
+                        } finally {
+                            localLock.release();
+                        }
+                    }
+                };
+            } finally {
+                if (!locked) {
+                    lockFile.close();
+                }
+            }
+        } finally {
+            if (!locked) {
+                localLock.release();
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+}
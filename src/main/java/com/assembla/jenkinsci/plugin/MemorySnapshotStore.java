@@ -0,0 +1,47 @@
+package com.assembla.jenkinsci.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Default SnapshotStore, shares snapshots between caches of this Jenkins only
+ * (e.g. security realm reconfigured while space is reloaded).
+ *
+ * @author Damir Milovic
+ */
+public class MemorySnapshotStore implements SnapshotStore {
+
+    private final ConcurrentMap<String, SpaceSnapshot> snapshots = new ConcurrentHashMap<String, SpaceSnapshot>();
+    private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<String, ReentrantLock>();
+
+    public SpaceSnapshot get(String spaceId) {
+        return snapshots.get(spaceId);
+    }
+
+    public void put(SpaceSnapshot snapshot) {
+        snapshots.put(snapshot.getSpaceId(), snapshot);
+    }
+
+    public Lock lock(String spaceId, long timeout) throws InterruptedException {
+        ReentrantLock lock = locks.get(spaceId);
+        if (lock == null) {
+            lock = new ReentrantLock();
+            ReentrantLock existing = locks.putIfAbsent(spaceId, lock);
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        if (!lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        final ReentrantLock acquired = lock;
+        return new Lock() {
+
+            public void release() {
+                acquired.unlock();
+            }
+        };
+    }
+}
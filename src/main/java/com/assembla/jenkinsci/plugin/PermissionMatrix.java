@@ -0,0 +1,198 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AssemblaPermission;
+import hudson.security.Permission;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps Assembla permission levels (NONE, VIEW, EDIT, ALL) and roles (owner,
+ * member, watcher) to Jenkins permissions. Every level and role is configured
+ * as comma separated list of permission ids, "*" grants all permissions and
+ * "-" prefix excludes permission, e.g. "*, -hudson.model.Hudson.Administer".
+ * Permissions implied by granted permission are granted too, unless they are
+ * excluded.
+ *
+ * User gets permissions of Assembla permission level (owner has ALL, member
+ * and watcher have level of space settings) plus permissions of user's role.
+ * Permission excluded by role is denied to the role even if level grants it.
+ *
+ * Configuration is compiled into bit mask per Jenkins permission (bits for
+ * levels, granted and denied roles) held in identity map, so permission check
+ * is single lookup without string comparisons.
+ *
+ * @author Damir Milovic
+ */
+public class PermissionMatrix {
+
+    public static final String DEFAULT_NONE = "";
+    public static final String DEFAULT_VIEW = "hudson.model.Hudson.Read, hudson.model.Item.Read";
+    public static final String DEFAULT_EDIT = "*, -hudson.model.Hudson.Administer";
+    public static final String DEFAULT_ALL = "*";
+    public static final String DEFAULT_ROLE = "";
+    private static final String ALL_PERMISSIONS = "*";
+    private static final String EXCLUDE_PREFIX = "-";
+    private static final int LEVELS = AssemblaPermission.ALL + 1;
+    private static final int ROLES = AssemblaPermission.ROLE_WATCHER + 1;
+    // mask bits: granted by level, granted by role, denied to role
+    private static final int ROLE_GRANTED_BIT = LEVELS;
+    private static final int ROLE_DENIED_BIT = LEVELS + ROLES;
+    // configuration, indexed by AssemblaPermission level
+    private final String[] levels;
+    // configuration, indexed by AssemblaPermission role (ROLE_NONE is not configurable)
+    private String[] roles;
+    // compiled configuration, rows are levels followed by roles
+    private transient boolean[] grantAll;
+    private transient Set<String>[] included;
+    private transient Set<String>[] excluded;
+    // never modified after it is published, permissions registered later are added to copy
+    private transient volatile Map<Permission, Integer> masks;
+
+    public PermissionMatrix(String none, String view, String edit, String all) {
+        this(none, view, edit, all, null, null, null);
+    }
+
+    public PermissionMatrix(String none, String view, String edit, String all, String owner, String member, String watcher) {
+        levels = new String[LEVELS];
+        levels[AssemblaPermission.NONE] = normalize(none, DEFAULT_NONE);
+        levels[AssemblaPermission.VIEW] = normalize(view, DEFAULT_VIEW);
+        levels[AssemblaPermission.EDIT] = normalize(edit, DEFAULT_EDIT);
+        levels[AssemblaPermission.ALL] = normalize(all, DEFAULT_ALL);
+        roles = createRoles(owner, member, watcher);
+        compile();
+    }
+
+    /**
+     * @return matrix granting same permissions as before matrix was configurable.
+     */
+    public static PermissionMatrix createDefault() {
+        return new PermissionMatrix(null, null, null, null);
+    }
+
+    /**
+     * @param level AssemblaPermission level
+     * @return true if Assembla permission level grants Jenkins permission
+     */
+    public boolean isGranted(int level, Permission permission) {
+        return isGranted(level, AssemblaPermission.ROLE_NONE, permission);
+    }
+
+    /**
+     * @param level AssemblaPermission level
+     * @param role AssemblaPermission role, e.g. ROLE_OWNER
+     * @return true if Assembla permission level or role grants Jenkins
+     * permission and role does not exclude it
+     */
+    public boolean isGranted(int level, int role, Permission permission) {
+        if (level < 0 || level >= LEVELS || role < 0 || role >= ROLES) {
+            return false;
+        }
+        Integer mask = masks.get(permission);
+        if (mask == null) {
+            // permission registered after matrix was compiled
+            mask = addMask(permission);
+        }
+        return (mask & ((1 << level) | (1 << (ROLE_GRANTED_BIT + role)))) != 0
+                && (mask & (1 << (ROLE_DENIED_BIT + role))) == 0;
+    }
+
+    /**
+     * @return configured permission ids for AssemblaPermission level
+     */
+    public String getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * @return configured permission ids for AssemblaPermission role
+     */
+    public String getRole(int role) {
+        return roles[role];
+    }
+
+    private Object readResolve() {
+        if (roles == null) {
+            // configuration saved before roles were configurable
+            roles = createRoles(null, null, null);
+        }
+        compile();
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compile() {
+        int rows = LEVELS + ROLES;
+        grantAll = new boolean[rows];
+        included = new Set[rows];
+        excluded = new Set[rows];
+        for (int row = 0; row < rows; row++) {
+            included[row] = new HashSet<String>();
+            excluded[row] = new HashSet<String>();
+            String value = (row < LEVELS) ? levels[row] : roles[row - LEVELS];
+            for (String part : value.split(",")) {
+                String id = part.trim();
+                if (id.equals(ALL_PERMISSIONS)) {
+                    grantAll[row] = true;
+                } else if (id.startsWith(EXCLUDE_PREFIX)) {
+                    excluded[row].add(id.substring(EXCLUDE_PREFIX.length()).trim());
+                } else if (id.length() > 0) {
+                    included[row].add(id);
+                }
+            }
+        }
+        Map<Permission, Integer> compiled = new IdentityHashMap<Permission, Integer>();
+        for (Permission permission : Permission.getAll()) {
+            compiled.put(permission, computeMask(permission));
+        }
+        masks = compiled;
+    }
+
+    private synchronized Integer addMask(Permission permission) {
+        Integer mask = masks.get(permission);
+        if (mask == null) {
+            mask = computeMask(permission);
+            Map<Permission, Integer> copy = new IdentityHashMap<Permission, Integer>(masks);
+            copy.put(permission, mask);
+            masks = copy;
+        }
+        return mask;
+    }
+
+    private int computeMask(Permission permission) {
+        int mask = 0;
+        for (int row = 0; row < LEVELS + ROLES; row++) {
+            if (excluded[row].contains(permission.getId())) {
+                if (row >= LEVELS) {
+                    mask |= 1 << (ROLE_DENIED_BIT + row - LEVELS);
+                }
+                continue; // explicitly excluded, even if implied
+            }
+            for (Permission p = permission; p != null; p = p.impliedBy) {
+                if (isGrantedDirectly(row, p.getId())) {
+                    mask |= 1 << row;
+                    break;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private boolean isGrantedDirectly(int row, String id) {
+        return included[row].contains(id) || (grantAll[row] && !excluded[row].contains(id));
+    }
+
+    private static String[] createRoles(String owner, String member, String watcher) {
+        String[] result = new String[ROLES];
+        result[AssemblaPermission.ROLE_NONE] = DEFAULT_ROLE;
+        result[AssemblaPermission.ROLE_OWNER] = normalize(owner, DEFAULT_ROLE);
+        result[AssemblaPermission.ROLE_MEMBER] = normalize(member, DEFAULT_ROLE);
+        result[AssemblaPermission.ROLE_WATCHER] = normalize(watcher, DEFAULT_ROLE);
+        return result;
+    }
+
+    private static String normalize(String value, String defaultValue) {
+        return (value != null) ? value.trim() : defaultValue;
+    }
+}
@@ -0,0 +1,40 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AssemblaHttpClient;
+import hudson.Plugin;
+import hudson.model.Hudson;
+import hudson.security.SecurityRealm;
+import java.util.logging.Logger;
+
+/**
+ * Plugin entry point. Restores persisted space snapshot and registers JMX
+ * metrics on start and releases resources shared by the plugin (pooled
+ * Assembla API connections) when Jenkins stops the plugin.
+ *
+ * @author Damir Milovic
+ */
+public class PluginImpl extends Plugin {
+
+    private static final Logger LOGGER = Logger.getLogger(PluginImpl.class.getName());
+
+    /**
+     * Restores space snapshot persisted before restart, so permission checks
+     * do not wait for Assembla API.
+     */
+    @Override
+    public void postInitialize() throws Exception {
+        AssemblaMetrics.register();
+        SecurityRealm realm = Hudson.getInstance().getSecurityRealm();
+        if (realm instanceof AssemblaSecurityRealm) {
+            AssemblaSecurityRealm assemblaRealm = (AssemblaSecurityRealm) realm;
+            assemblaRealm.getSnapshotCache().restore(assemblaRealm.getSpaceId());
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        LOGGER.fine("stop()");
+        AssemblaMetrics.unregister();
+        AssemblaHttpClient.shutdown();
+    }
+}
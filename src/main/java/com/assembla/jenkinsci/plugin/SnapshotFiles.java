@@ -0,0 +1,67 @@
+package com.assembla.jenkinsci.plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Naming and atomic writing of files persisted per space (snapshots, users,
+ * locks).
+ *
+ * @author Damir Milovic
+ */
+final class SnapshotFiles {
+
+    /**
+     * Writes content of file to given stream.
+     */
+    interface Content {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private SnapshotFiles() {
+    }
+
+    /**
+     * @return file of space in directory, characters of space id which are
+     * not safe in file names are replaced by '_'
+     */
+    static File forSpace(File directory, String prefix, String spaceId, String suffix) {
+        return new File(directory, prefix + spaceId.replaceAll("[^A-Za-z0-9_.-]", "_") + suffix);
+    }
+
+    /**
+     * Writes content to temporary file and renames it, so readers never see
+     * partially written file. Temporary file name is unique, so controllers
+     * sharing directory do not overwrite each other's temporary files.
+     */
+    static void write(File file, Content content) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create directory " + directory);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        boolean written = false;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            content.write(out);
+            out.close();
+            if (!tmp.renameTo(file)) {
+                // rename does not replace existing file on some platforms
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Can not rename " + tmp + " to " + file);
+                }
+            }
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.assembla.jenkinsci.plugin;
+
+import java.io.IOException;
+
+/**
+ * Store of space snapshots shared by Jenkins controllers protected by the same
+ * Assembla space. Controller reloading space from Assembla API holds lock of
+ * space and publishes snapshot to store, other controllers take it from store
+ * instead of calling Assembla API again.
+ *
+ * Implementation is selected by system property
+ * com.assembla.jenkinsci.plugin.SnapshotStore (class name with public no
+ * argument constructor), or FileSnapshotStore is used if property
+ * com.assembla.jenkinsci.plugin.FileSnapshotStore.directory is set. By default
+ * MemorySnapshotStore shares snapshots within this Jenkins only.
+ *
+ * @author Damir Milovic
+ */
+public interface SnapshotStore {
+
+    /**
+     * Exclusive right to reload space, held by one controller at a time.
+     */
+    interface Lock {
+
+        void release();
+    }
+
+    /**
+     * @return latest snapshot of space published by any controller, null if
+     * there is none.
+     */
+    SpaceSnapshot get(String spaceId) throws IOException;
+
+    /**
+     * Publishes snapshot reloaded from Assembla API.
+     */
+    void put(SpaceSnapshot snapshot) throws IOException;
+
+    /**
+     * Waits until no other controller (or thread) reloads space.
+     *
+     * @param timeout maximum wait time in ms
+     * @return lock to release after reload, null if it was not acquired in time
+     */
+    Lock lock(String spaceId, long timeout) throws IOException, InterruptedException;
+}
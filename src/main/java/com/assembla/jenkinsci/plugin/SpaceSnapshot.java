@@ -0,0 +1,132 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AssemblaPermission;
+import com.assembla.jenkinsci.plugin.api.SpaceAssembla;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of Assembla space permissions: team and watcher
+ * permissions plus user roles indexed by user id. One snapshot is shared by
+ * all authenticated users of the space.
+ *
+ * @author Damir Milovic
+ */
+public class SpaceSnapshot {
+
+    private final String spaceId;
+    private final int teamPermissions;
+    private final int watcherPermissions;
+    private final Map<String, String> roles; // user_id -> role
+    private final Map<String, Integer> access; // user_id -> AssemblaPermission access (permission and role)
+    private final long loadTime;
+    // restored from disk after restart, not validated by Assembla API yet
+    private final boolean restored;
+
+    /**
+     * @param roles user_id -> role map, owned by snapshot (must not be modified later)
+     */
+    public SpaceSnapshot(String spaceId, int teamPermissions, int watcherPermissions, Map<String, String> roles, long loadTime) {
+        this(spaceId, teamPermissions, watcherPermissions, roles, loadTime, false);
+    }
+
+    public SpaceSnapshot(String spaceId, int teamPermissions, int watcherPermissions, Map<String, String> roles, long loadTime, boolean restored) {
+        this.restored = restored;
+        this.spaceId = spaceId;
+        this.teamPermissions = teamPermissions;
+        this.watcherPermissions = watcherPermissions;
+        this.roles = Collections.unmodifiableMap(roles);
+        this.loadTime = loadTime;
+        Map<String, Integer> userAccess = new HashMap<String, Integer>(roles.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> entry : roles.entrySet()) {
+            String role = entry.getValue();
+            userAccess.put(entry.getKey(), AssemblaPermission.toAccess(
+                    AssemblaPermission.getPermission(role, teamPermissions, watcherPermissions), AssemblaPermission.toRole(role)));
+        }
+        this.access = userAccess;
+    }
+
+    /**
+     * Creates snapshot from space and already indexed user roles. Missing
+     * space means user roles can not be mapped to permissions, so every user
+     * gets NONE.
+     */
+    public static SpaceSnapshot create(String spaceId, SpaceAssembla space, Map<String, String> roles, long loadTime) {
+        if (space == null) {
+            roles = new HashMap<String, String>();
+        }
+        int team = (space != null) ? AssemblaPermission.toPermission(space.team_permissions) : AssemblaPermission.NONE;
+        int watcher = (space != null) ? AssemblaPermission.toPermission(space.watcher_permissions) : AssemblaPermission.NONE;
+        return new SpaceSnapshot(spaceId, team, watcher, roles, loadTime);
+    }
+
+    /**
+     * @return copy of snapshot without user (with the same load time), e.g.
+     * user was removed from space and snapshot was not reloaded yet.
+     */
+    public SpaceSnapshot withoutUser(String userId) {
+        Map<String, String> userRoles = new HashMap<String, String>(roles);
+        userRoles.remove(userId);
+        return new SpaceSnapshot(spaceId, teamPermissions, watcherPermissions, userRoles, loadTime, restored);
+    }
+
+    /**
+     * @return Assembla permission of user in this space, NONE if user is not space member.
+     */
+    public int getPermission(String userId) {
+        return AssemblaPermission.getPermission(getAccess(userId));
+    }
+
+    /**
+     * @return Assembla permission and role of user in this space (see
+     * AssemblaPermission.toAccess()), NONE if user is not space member.
+     */
+    public int getAccess(String userId) {
+        Integer result = access.get(userId);
+        return (result != null) ? result : AssemblaPermission.NONE;
+    }
+
+    /**
+     * @return user role in space or null if user is not space member.
+     */
+    public String getRole(String userId) {
+        return roles.get(userId);
+    }
+
+    /**
+     * @return true if snapshot grants the same permissions as other snapshot.
+     */
+    public boolean hasSamePermissions(SpaceSnapshot other) {
+        return other != null && teamPermissions == other.teamPermissions
+                && watcherPermissions == other.watcherPermissions && roles.equals(other.roles);
+    }
+
+    public boolean isRestored() {
+        return restored;
+    }
+
+    public boolean isExpired(long now, long timeToLive) {
+        return (now - loadTime) > timeToLive;
+    }
+
+    public String getSpaceId() {
+        return spaceId;
+    }
+
+    public int getTeamPermissions() {
+        return teamPermissions;
+    }
+
+    public int getWatcherPermissions() {
+        return watcherPermissions;
+    }
+
+    public Map<String, String> getRoles() {
+        return roles;
+    }
+
+    public long getLoadTime() {
+        return loadTime;
+    }
+}
@@ -0,0 +1,654 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AccessDeniedException;
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
+import com.assembla.jenkinsci.plugin.api.ApiFuture;
+import com.assembla.jenkinsci.plugin.api.AssemblaExecutors;
+import com.assembla.jenkinsci.plugin.api.Authorization;
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.CacheStatistics;
+import com.assembla.jenkinsci.plugin.api.SpaceAssembla;
+import com.assembla.jenkinsci.plugin.api.UserRoleHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Realm level cache of space snapshots. Space and user roles are loaded from
+ * Assembla API once per SNAPSHOT_CACHE_TIME and shared across all sessions,
+ * so API traffic depends on number of spaces, not on number of logged in users.
+ * Snapshots are persisted, so they survive Jenkins restart. Reloaded snapshots
+ * are published to SnapshotStore, so controllers sharing store reload every
+ * space once, not once per controller.
+ *
+ * @author Damir Milovic
+ */
+public class SpaceSnapshotCache {
+
+    private static final Logger LOG = Logger.getLogger(SpaceSnapshotCache.class.getName());
+    // Cache time for space snapshot
+    public static final long SNAPSHOT_CACHE_TIME = Long.getLong(SpaceSnapshotCache.class.getName() + ".cacheTime", 20000L); // 20 sec
+    // Serve previous snapshot while other thread is reloading it
+    public static final boolean STALE_READ = Boolean.getBoolean(SpaceSnapshotCache.class.getName() + ".staleRead");
+    // Serve expired snapshot while it is refreshed in background (stale-while-revalidate)
+    public static final boolean BACKGROUND_REFRESH = Boolean.getBoolean(SpaceSnapshotCache.class.getName() + ".backgroundRefresh");
+    // Snapshot older than this is never served, caller waits for reload
+    public static final long MAX_STALENESS = Long.getLong(SpaceSnapshotCache.class.getName() + ".maxStaleness", 300000L); // 5 min
+    // Deadline of space reload (token refresh, space and user roles), API requests are aborted when it passes
+    public static final long RELOAD_TIMEOUT = Long.getLong(SpaceSnapshotCache.class.getName() + ".reloadTimeout", ApiService.CALL_TIMEOUT);
+    // While Assembla API is failing last successfully loaded snapshot is served, but not if it is older than this
+    public static final long MAX_LAST_KNOWN_GOOD_AGE = Long.getLong(SpaceSnapshotCache.class.getName() + ".maxLastKnownGoodAge", 3600000L); // 1 h
+    // Snapshot restored from disk is served until it is refreshed, but not if it is older than this; it is last
+    // known good snapshot too, so it is never served longer than MAX_LAST_KNOWN_GOOD_AGE
+    public static final long MAX_RESTORED_AGE = Math.min(MAX_LAST_KNOWN_GOOD_AGE,
+            Long.getLong(SpaceSnapshotCache.class.getName() + ".maxRestoredAge", MAX_LAST_KNOWN_GOOD_AGE));
+    // Space which failed to reload is not reloaded again for this time, doubled with every consecutive failure
+    public static final long RELOAD_BACKOFF = Long.getLong(SpaceSnapshotCache.class.getName() + ".reloadBackoff", 5000L); // 5 sec
+    public static final long MAX_RELOAD_BACKOFF = Long.getLong(SpaceSnapshotCache.class.getName() + ".maxReloadBackoff", 300000L); // 5 min
+    private static final ExecutorService REFRESH_EXECUTOR = AssemblaExecutors.newBoundedExecutor("Assembla space refresh", 2, 32);
+    private static final ThreadPoolExecutor PREFETCH_EXECUTOR = AssemblaExecutors.newBoundedExecutor("Assembla space prefetch",
+            Integer.getInteger(SpaceSnapshotCache.class.getName() + ".prefetchThreads", 8), 64);
+    private final ConcurrentMap<String, SpaceSnapshot> snapshots = new ConcurrentHashMap<String, SpaceSnapshot>();
+    private final SingleFlight<String, SpaceSnapshot> reloads = new SingleFlight<String, SpaceSnapshot>();
+    private final Map<String, Boolean> scheduledRefreshes = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, Boolean> scheduledPrefetches = new ConcurrentHashMap<String, Boolean>();
+    // directory of persisted snapshots, null if snapshots are not persisted
+    private final File snapshotDirectory;
+    private final Map<String, Boolean> restoredSpaces = new ConcurrentHashMap<String, Boolean>();
+    // space id -> time of last invalidation
+    private final Map<String, Long> invalidationTimes = new ConcurrentHashMap<String, Long>();
+    // space id -> number of invalidations, reload started before last invalidation is not installed
+    private final Map<String, Long> generations = new ConcurrentHashMap<String, Long>();
+    // space id -> consecutive reload failures
+    private final Map<String, ReloadFailure> reloadFailures = new ConcurrentHashMap<String, ReloadFailure>();
+    private final CacheStatistics statistics = new CacheStatistics();
+    // snapshots shared with other controllers
+    private final SnapshotStore store;
+    // reloads served by snapshot reloaded by other controller
+    private final AtomicLong sharedHitCount = new AtomicLong();
+
+    public SpaceSnapshotCache(File snapshotDirectory, SnapshotStore store) {
+        this.snapshotDirectory = snapshotDirectory;
+        this.store = store;
+    }
+
+    /**
+     * Restores snapshot persisted before restart, unless snapshot of space is
+     * already loaded. Restored snapshot is served until it is refreshed from
+     * Assembla API.
+     */
+    public void restore(String spaceId) {
+        if (snapshotDirectory == null || spaceId == null || snapshots.containsKey(spaceId)
+                || restoredSpaces.put(spaceId, Boolean.TRUE) != null) {
+            return;
+        }
+        SpaceSnapshotFile file = SpaceSnapshotFile.forSpace(snapshotDirectory, spaceId);
+        try {
+            long start = System.currentTimeMillis();
+            SpaceSnapshot snapshot = file.read();
+            if (snapshot != null && spaceId.equals(snapshot.getSpaceId())) {
+                snapshots.put(spaceId, snapshot);
+                LOG.log(Level.FINE, "restore() - {0} user roles of space {1} restored in {2} ms",
+                        new Object[]{snapshot.getRoles().size(), spaceId, System.currentTimeMillis() - start});
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "restore() - can not read " + file.getFile(), ex);
+        }
+    }
+
+    /**
+     * @return true if snapshot of space is loaded (even if it is expired).
+     */
+    public boolean contains(String spaceId) {
+        return snapshots.containsKey(spaceId);
+    }
+
+    /**
+     * Starts loading snapshots of spaces which are not loaded yet concurrently
+     * in background, without waiting for them. Spaces which failed to reload
+     * recently are skipped. Callers needing the space later join its reload.
+     */
+    public void prefetch(Collection<String> spaceIds, final AccessTokenManager tokenManager) {
+        for (final String spaceId : spaceIds) {
+            if (!contains(spaceId)) {
+                restore(spaceId);
+            }
+            if (contains(spaceId) || isBackingOff(spaceId) || scheduledPrefetches.put(spaceId, Boolean.TRUE) != null) {
+                continue;
+            }
+            try {
+                PREFETCH_EXECUTOR.execute(new Runnable() {
+
+                    public void run() {
+                        try {
+                            load(spaceId, tokenManager);
+                        } catch (RuntimeException ex) {
+                            LOG.log(Level.SEVERE, "Prefetch of space " + spaceId + " failed", ex);
+                        } finally {
+                            scheduledPrefetches.remove(spaceId);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // queue full, space is loaded when it is checked
+                scheduledPrefetches.remove(spaceId);
+            }
+        }
+    }
+
+    /**
+     * @return cached snapshot of space or null if it is not loaded or expired.
+     */
+    public SpaceSnapshot getIfFresh(String spaceId) {
+        SpaceSnapshot snapshot = snapshots.get(spaceId);
+        if (snapshot != null && snapshot.isExpired(System.currentTimeMillis(), SNAPSHOT_CACHE_TIME)) {
+            snapshot = null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return true if snapshot is not expired and was not replaced or evicted
+     * since it was returned by cache (e.g. snapshot referenced by session).
+     */
+    public boolean isCurrent(SpaceSnapshot snapshot) {
+        return snapshots.get(snapshot.getSpaceId()) == snapshot
+                && !snapshot.isExpired(System.currentTimeMillis(), SNAPSHOT_CACHE_TIME);
+    }
+
+    /**
+     * Returns snapshot of space, loading it from Assembla API if needed. With
+     * BACKGROUND_REFRESH enabled expired snapshot (not older than MAX_STALENESS)
+     * is returned immediately and refreshed by background thread, so request
+     * threads do not wait for Assembla API.
+     */
+    public SpaceSnapshot get(String spaceId, AccessTokenManager tokenManager) {
+        SpaceSnapshot snapshot = snapshots.get(spaceId);
+        if (snapshot == null) {
+            // e.g. realm was reconfigured
+            restore(spaceId);
+            snapshot = snapshots.get(spaceId);
+        }
+        long now = System.currentTimeMillis();
+        if (snapshot != null && !snapshot.isExpired(now, SNAPSHOT_CACHE_TIME)) {
+            statistics.hit();
+            return snapshot;
+        }
+        if (snapshot != null && snapshot.isRestored() && !snapshot.isExpired(now, MAX_RESTORED_AGE)) {
+            // restored after restart, validate it in background
+            scheduleRefresh(spaceId, tokenManager, false);
+            statistics.staleHit();
+            return snapshot;
+        }
+        if (snapshot != null && !ApiService.getCircuitBreaker().isClosed() && !snapshot.isExpired(now, MAX_LAST_KNOWN_GOOD_AGE)) {
+            // Assembla API is failing, do not block request thread; refresh probes whether API is back
+            scheduleRefresh(spaceId, tokenManager, false);
+            statistics.staleHit();
+            return snapshot;
+        }
+        if (BACKGROUND_REFRESH && snapshot != null && !snapshot.isExpired(now, MAX_STALENESS)) {
+            scheduleRefresh(spaceId, tokenManager, false);
+            statistics.staleHit();
+            return snapshot;
+        }
+        statistics.miss();
+        return load(spaceId, tokenManager);
+    }
+
+    /**
+     * Loads space and user roles from Assembla API using access token of given
+     * user. Concurrent loads of the same space are coalesced into one API call
+     * chain; with STALE_READ enabled callers get previous snapshot instead of
+     * waiting for it. Space which failed to reload is not reloaded until its
+     * backoff time passes, last known good snapshot (or null) is returned
+     * meanwhile.
+     */
+    public SpaceSnapshot load(final String spaceId, final AccessTokenManager tokenManager) {
+        SpaceSnapshot snapshot = getIfFresh(spaceId);
+        if (snapshot == null && isBackingOff(spaceId)) {
+            return getLastKnownGood(spaceId);
+        }
+        if (snapshot == null) {
+            // reload started before invalidation of space is not joined
+            final long generation = getGeneration(spaceId);
+            String key = reloadKey(spaceId, generation);
+            if (STALE_READ && reloads.isInFlight(key)) {
+                snapshot = snapshots.get(spaceId);
+            }
+            if (snapshot == null) {
+                snapshot = reloads.execute(key, new Callable<SpaceSnapshot>() {
+
+                    public SpaceSnapshot call() {
+                        // other thread could have loaded it meanwhile
+                        SpaceSnapshot result = getIfFresh(spaceId);
+                        return (result != null) ? result
+                                : reload(spaceId, tokenManager, System.currentTimeMillis() - SNAPSHOT_CACHE_TIME, generation);
+                    }
+                });
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Installs snapshot as if it was loaded from Assembla API, e.g. in
+     * benchmarks.
+     */
+    void put(SpaceSnapshot snapshot) {
+        update(snapshot);
+    }
+
+    /**
+     * Evicts snapshot of space (e.g. space membership was changed) and reloads
+     * it in background. Until it is reloaded permissions of space are loaded
+     * by request threads. Result of reload in progress is discarded, it could
+     * be loaded before membership was changed.
+     *
+     * @param tokenManager access token used for reload, null if space should
+     * not be reloaded now
+     */
+    public void invalidate(String spaceId, AccessTokenManager tokenManager) {
+        // persisted snapshot is outdated too
+        restoredSpaces.put(spaceId, Boolean.TRUE);
+        synchronized (generations) {
+            nextGeneration(spaceId);
+            snapshots.remove(spaceId);
+        }
+        reloadFailures.remove(spaceId);
+        LOG.log(Level.FINE, "invalidate() - space {0}", spaceId);
+        if (tokenManager != null) {
+            scheduleRefresh(spaceId, tokenManager, true);
+        }
+    }
+
+    /**
+     * Removes user from all snapshots, so user has no permissions until
+     * spaces of user are reloaded (they are reloaded in background).
+     *
+     * @return spaces user was removed from
+     */
+    public Set<String> invalidateUser(String userId, AccessTokenManager tokenManager) {
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<String, SpaceSnapshot> entry : snapshots.entrySet()) {
+            SpaceSnapshot snapshot = entry.getValue();
+            if (snapshot.getRoles().containsKey(userId)) {
+                synchronized (generations) {
+                    nextGeneration(entry.getKey());
+                    snapshots.replace(entry.getKey(), snapshot, snapshot.withoutUser(userId));
+                }
+                result.add(entry.getKey());
+                if (tokenManager != null) {
+                    scheduleRefresh(entry.getKey(), tokenManager, true);
+                }
+            }
+        }
+        LOG.log(Level.FINE, "invalidateUser() - user {0} removed from spaces {1}", new Object[]{userId, result});
+        return result;
+    }
+
+    /**
+     * Refreshes are deduplicated per space, forced refresh per invalidation
+     * (it is not dropped because refresh of space or forced refresh of
+     * previous invalidation is scheduled).
+     *
+     * @param force reload space even if its snapshot is not expired
+     */
+    private void scheduleRefresh(final String spaceId, final AccessTokenManager tokenManager, final boolean force) {
+        final String refreshKey = force ? "force:" + reloadKey(spaceId, getGeneration(spaceId)) : spaceId;
+        if (scheduledRefreshes.put(refreshKey, Boolean.TRUE) != null) {
+            return; // already scheduled
+        }
+        try {
+            REFRESH_EXECUTOR.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        if (force) {
+                            final long generation = getGeneration(spaceId);
+                            reloads.execute(reloadKey(spaceId, generation), new Callable<SpaceSnapshot>() {
+
+                                public SpaceSnapshot call() {
+                                    return reload(spaceId, tokenManager, 0, generation);
+                                }
+                            });
+                        } else {
+                            load(spaceId, tokenManager);
+                        }
+                    } catch (RuntimeException ex) {
+                        LOG.log(Level.SEVERE, "Background refresh of space " + spaceId + " failed", ex);
+                    } finally {
+                        scheduledRefreshes.remove(refreshKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // queue full, try again on next request
+            scheduledRefreshes.remove(refreshKey);
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return number of reloads served by snapshot reloaded by other
+     * controller sharing store.
+     */
+    public long getSharedHitCount() {
+        return sharedHitCount.get();
+    }
+
+    /**
+     * @return number of spaces in cache.
+     */
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * @return number of space reloads in progress.
+     */
+    public int getReloadsInFlight() {
+        return reloads.getInFlightCount();
+    }
+
+    /**
+     * Reloads space unless other controller sharing store has reloaded it
+     * already. Reload is guarded by lock of store, so controllers waiting for
+     * it take snapshot from store when lock is released.
+     *
+     * @param notBefore shared snapshot loaded before this time is not used
+     * @param generation generation of space when reload was started
+     */
+    private SpaceSnapshot reload(final String spaceId, final AccessTokenManager tokenManager, long notBefore, long generation) {
+        Long invalidationTime = invalidationTimes.get(spaceId);
+        if (invalidationTime != null) {
+            // shared snapshot could be loaded before membership was changed
+            notBefore = Math.max(notBefore, invalidationTime);
+        }
+        SpaceSnapshot snapshot = getShared(spaceId, notBefore);
+        if (snapshot != null) {
+            return install(snapshot, generation);
+        }
+        SnapshotStore.Lock lock = lockShared(spaceId);
+        try {
+            if (lock != null) {
+                // other controller could have reloaded it while lock was awaited
+                snapshot = getShared(spaceId, notBefore);
+                if (snapshot != null) {
+                    return install(snapshot, generation);
+                }
+            }
+            LOG.log(Level.FINE, "reload() - - Reloading space {0} from Assembla API ...", spaceId);
+            // Request thread waits at most RELOAD_TIMEOUT, hung API calls are aborted
+            // await() returns null also if reload was rejected (too many API calls waiting)
+            try {
+                snapshot = reloadAsync(spaceId, tokenManager).await();
+            } catch (AccessDeniedException ex) {
+                // credentials of caller (e.g. user who is not space member) do not grant access to space,
+                // it is not backing off, so other users can reload it
+                LOG.log(Level.FINE, "reload() - access to space {0} denied: {1}", new Object[]{spaceId, ex.getMessage()});
+                return getLastKnownGood(spaceId);
+            }
+            if (snapshot == null) {
+                return onReloadFailure(spaceId);
+            }
+            if (getGeneration(spaceId) == generation) {
+                publish(snapshot);
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+        return install(snapshot, generation);
+    }
+
+    /**
+     * Installs reloaded snapshot unless space was invalidated since reload
+     * was started. Discarded snapshot is still returned to callers which
+     * waited for it, but it is not cached.
+     */
+    private SpaceSnapshot install(SpaceSnapshot snapshot, long generation) {
+        synchronized (generations) {
+            if (getGeneration(snapshot.getSpaceId()) == generation) {
+                return update(snapshot);
+            }
+        }
+        LOG.log(Level.FINE, "install() - space {0} was invalidated while it was reloaded, snapshot discarded",
+                snapshot.getSpaceId());
+        return snapshot;
+    }
+
+    private long getGeneration(String spaceId) {
+        Long generation = generations.get(spaceId);
+        return (generation != null) ? generation : 0;
+    }
+
+    /**
+     * Called with generations locked.
+     */
+    private void nextGeneration(String spaceId) {
+        generations.put(spaceId, getGeneration(spaceId) + 1);
+        invalidationTimes.put(spaceId, System.currentTimeMillis());
+    }
+
+    private static String reloadKey(String spaceId, long generation) {
+        return spaceId + '#' + generation;
+    }
+
+    private SpaceSnapshot update(SpaceSnapshot snapshot) {
+        reloadFailures.remove(snapshot.getSpaceId());
+        SpaceSnapshot previous = snapshots.put(snapshot.getSpaceId(), snapshot);
+        if (!snapshot.hasSamePermissions(previous) || previous.isRestored()) {
+            persist(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return snapshot of space in store loaded not before given time, null if
+     * there is none
+     */
+    private SpaceSnapshot getShared(String spaceId, long notBefore) {
+        try {
+            SpaceSnapshot snapshot = store.get(spaceId);
+            if (snapshot != null && !snapshot.isRestored() && snapshot.getLoadTime() >= notBefore) {
+                sharedHitCount.incrementAndGet();
+                LOG.log(Level.FINE, "getShared() - space {0} was reloaded by other controller", spaceId);
+                return snapshot;
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "getShared() - can not read snapshot of space " + spaceId, ex);
+        }
+        return null;
+    }
+
+    /**
+     * @return lock of space in store, null if it is not acquired in
+     * RELOAD_TIMEOUT (space is reloaded without lock then)
+     */
+    private SnapshotStore.Lock lockShared(String spaceId) {
+        try {
+            SnapshotStore.Lock lock = store.lock(spaceId, RELOAD_TIMEOUT);
+            if (lock == null) {
+                LOG.log(Level.WARNING, "lockShared() - space {0} is locked by other controller for {1} ms, reloading it anyway",
+                        new Object[]{spaceId, RELOAD_TIMEOUT});
+            }
+            return lock;
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "lockShared() - can not lock space " + spaceId, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private void publish(SpaceSnapshot snapshot) {
+        try {
+            store.put(snapshot);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "publish() - can not store snapshot of space " + snapshot.getSpaceId(), ex);
+        }
+    }
+
+    /**
+     * Reload pipeline: access token (refreshed if needed), space and user
+     * roles, executed as one asynchronous call with RELOAD_TIMEOUT deadline.
+     * Space and user roles are independent, so they are loaded concurrently
+     * and reload takes as long as the slower of them.
+     */
+    private ApiFuture<SpaceSnapshot> reloadAsync(final String spaceId, final AccessTokenManager tokenManager) {
+        return ApiService.submit(new Callable<SpaceSnapshot>() {
+
+            public SpaceSnapshot call() {
+                // refreshed once, before space and user roles are loaded concurrently with it
+                tokenManager.refreshIfExpiring();
+                // 1. get space data (need relation between role and permission), aborted with reload
+                ApiFuture<SpaceAssembla> spaceFuture = ApiService.fork(new Callable<SpaceAssembla>() {
+
+                    public SpaceAssembla call() {
+                        return tokenManager.execute(new AccessTokenManager.ApiCall<SpaceAssembla>() {
+
+                            public SpaceAssembla call(Authorization authorization) {
+                                return ApiService.getSpace(authorization, spaceId);
+                            }
+                        });
+                    }
+                });
+                // 2. meanwhile get user roles in selected space, streamed directly into index
+                final Map<String, String> roles = new HashMap<String, String>();
+                Boolean complete = tokenManager.execute(new AccessTokenManager.ApiCall<Boolean>() {
+
+                    public Boolean call(Authorization authorization) {
+                        synchronized (roles) {
+                            roles.clear(); // retried with refreshed token
+                        }
+                        return ApiService.getUserRoles(authorization, spaceId, new UserRoleHandler() {
+
+                            public void userRole(String userId, String role) {
+                                // pages are read concurrently
+                                synchronized (roles) {
+                                    roles.put(userId, role);
+                                }
+                            }
+                        });
+                    }
+                });
+                if (!Boolean.TRUE.equals(complete)) {
+                    // do not replace last known good snapshot by failed or partially read user roles,
+                    // space is not awaited (nor cancelled, it would abort requests of whole reload)
+                    return null;
+                }
+                SpaceAssembla space = spaceFuture.await();
+                synchronized (roles) {
+                    if (space == null) {
+                        return withPreviousSpace(spaceId, roles);
+                    }
+                    return SpaceSnapshot.create(spaceId, space, roles, System.currentTimeMillis());
+                }
+            }
+        }, RELOAD_TIMEOUT);
+    }
+
+    /**
+     * Space failed to load but user roles were loaded: space permissions
+     * rarely change, so permissions of previous snapshot are combined with
+     * current user roles.
+     *
+     * @return snapshot or null if there is no previous snapshot of space
+     */
+    private SpaceSnapshot withPreviousSpace(String spaceId, Map<String, String> roles) {
+        SpaceSnapshot previous = snapshots.get(spaceId);
+        if (previous == null) {
+            LOG.log(Level.WARNING, "reload() - space {0} was not loaded", spaceId);
+            return null;
+        }
+        LOG.log(Level.WARNING, "reload() - space {0} was not loaded, keeping its previous permissions", spaceId);
+        return new SpaceSnapshot(spaceId, previous.getTeamPermissions(), previous.getWatcherPermissions(),
+                new HashMap<String, String>(roles), System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if space failed to reload and its backoff time has not
+     * passed yet
+     */
+    private boolean isBackingOff(String spaceId) {
+        ReloadFailure failure = reloadFailures.get(spaceId);
+        return failure != null && System.currentTimeMillis() < failure.retryTime;
+    }
+
+    /**
+     * Records failed reload, so space is not reloaded by every permission
+     * check while Assembla API keeps failing for it (e.g. errors which do not
+     * open circuit breaker, like 4xx responses or invalid content). Access
+     * denied to caller is not recorded, it would keep space from members.
+     *
+     * @return last known good snapshot of space
+     */
+    private SpaceSnapshot onReloadFailure(String spaceId) {
+        ReloadFailure previous = reloadFailures.get(spaceId);
+        int count = (previous != null) ? previous.count + 1 : 1;
+        long backoff = Math.min(MAX_RELOAD_BACKOFF, RELOAD_BACKOFF << Math.min(count - 1, 16));
+        reloadFailures.put(spaceId, new ReloadFailure(count, System.currentTimeMillis() + backoff));
+        SpaceSnapshot snapshot = getLastKnownGood(spaceId);
+        if (snapshot != null) {
+            LOG.log(Level.WARNING, "reload() - space {0} was not reloaded ({1} failures), retrying in {2} ms, serving snapshot loaded {3} ms ago",
+                    new Object[]{spaceId, count, backoff, System.currentTimeMillis() - snapshot.getLoadTime()});
+        } else {
+            LOG.log(Level.WARNING, "reload() - space {0} was not reloaded ({1} failures), retrying in {2} ms",
+                    new Object[]{spaceId, count, backoff});
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return previous snapshot of space if reload failed, null if there is no
+     * snapshot or it is older than MAX_LAST_KNOWN_GOOD_AGE.
+     */
+    private SpaceSnapshot getLastKnownGood(String spaceId) {
+        SpaceSnapshot snapshot = snapshots.get(spaceId);
+        if (snapshot != null && snapshot.isExpired(System.currentTimeMillis(), MAX_LAST_KNOWN_GOOD_AGE)) {
+            snapshot = null;
+        }
+        return snapshot;
+    }
+
+    private void persist(SpaceSnapshot snapshot) {
+        if (snapshotDirectory == null) {
+            return;
+        }
+        SpaceSnapshotFile file = SpaceSnapshotFile.forSpace(snapshotDirectory, snapshot.getSpaceId());
+        try {
+            file.write(snapshot);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "persist() - can not write " + file.getFile(), ex);
+        }
+    }
+
+    private static class ReloadFailure {
+
+        final int count;
+        // reload is not attempted before this time
+        final long retryTime;
+
+        ReloadFailure(int count, long retryTime) {
+            this.count = count;
+            this.retryTime = retryTime;
+        }
+    }
+}
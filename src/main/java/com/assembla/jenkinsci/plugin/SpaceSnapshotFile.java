@@ -0,0 +1,145 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.AssemblaJson;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary file holding space snapshot, so permissions can be served
+ * right after Jenkins restart instead of every session loading them from
+ * Assembla API at the same moment.
+ *
+ * Format (version 1): magic, version, space id, team permissions, watcher
+ * permissions, load time, number of users and for every user id followed by
+ * role code (well known roles) or role name.
+ *
+ * @author Damir Milovic
+ */
+public class SpaceSnapshotFile {
+
+    private static final int MAGIC = 0x41534e50; // "ASNP"
+    private static final int VERSION = 1;
+    private static final byte ROLE_NULL = 0;
+    private static final byte ROLE_OWNER = 1;
+    private static final byte ROLE_MEMBER = 2;
+    private static final byte ROLE_WATCHER = 3;
+    private static final byte ROLE_OTHER = 4;
+    private final File file;
+
+    public SpaceSnapshotFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return snapshot file of space in directory
+     */
+    public static SpaceSnapshotFile forSpace(File directory, String spaceId) {
+        return new SpaceSnapshotFile(SnapshotFiles.forSpace(directory, "space-", spaceId, ".snapshot"));
+    }
+
+    /**
+     * @return snapshot marked as restored or null if file does not exist or
+     * was written by other version of this plugin.
+     */
+    public SpaceSnapshot read() throws IOException {
+        return read(true);
+    }
+
+    /**
+     * @param restored mark snapshot as restored (not validated by Assembla API
+     * since it was written)
+     * @return snapshot or null if file does not exist or was written by other
+     * version of this plugin.
+     */
+    public SpaceSnapshot read(boolean restored) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String spaceId = in.readUTF();
+            int teamPermissions = in.readInt();
+            int watcherPermissions = in.readInt();
+            long loadTime = in.readLong();
+            int count = in.readInt();
+            Map<String, String> roles = new HashMap<String, String>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String userId = in.readUTF();
+                roles.put(userId, readRole(in));
+            }
+            return new SpaceSnapshot(spaceId, teamPermissions, watcherPermissions, roles, loadTime, restored);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes snapshot atomically, see SnapshotFiles.write().
+     */
+    public void write(final SpaceSnapshot snapshot) throws IOException {
+        SnapshotFiles.write(file, new SnapshotFiles.Content() {
+
+            public void write(DataOutputStream out) throws IOException {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(snapshot.getSpaceId());
+                out.writeInt(snapshot.getTeamPermissions());
+                out.writeInt(snapshot.getWatcherPermissions());
+                out.writeLong(snapshot.getLoadTime());
+                Map<String, String> roles = snapshot.getRoles();
+                out.writeInt(roles.size());
+                for (Map.Entry<String, String> entry : roles.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    writeRole(out, entry.getValue());
+                }
+            }
+        });
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static void writeRole(DataOutputStream out, String role) throws IOException {
+        if (role == null) {
+            out.writeByte(ROLE_NULL);
+        } else if (role.equals(ApiService.ASSEMBLA_ROLE_OWNER)) {
+            out.writeByte(ROLE_OWNER);
+        } else if (role.equals(ApiService.ASSEMBLA_ROLE_MEMBER)) {
+            out.writeByte(ROLE_MEMBER);
+        } else if (role.equals(ApiService.ASSEMBLA_ROLE_WATCHER)) {
+            out.writeByte(ROLE_WATCHER);
+        } else {
+            out.writeByte(ROLE_OTHER);
+            out.writeUTF(role);
+        }
+    }
+
+    private static String readRole(DataInputStream in) throws IOException {
+        byte code = in.readByte();
+        switch (code) {
+            case ROLE_NULL:
+                return null;
+            case ROLE_OWNER:
+                return ApiService.ASSEMBLA_ROLE_OWNER;
+            case ROLE_MEMBER:
+                return ApiService.ASSEMBLA_ROLE_MEMBER;
+            case ROLE_WATCHER:
+                return ApiService.ASSEMBLA_ROLE_WATCHER;
+            case ROLE_OTHER:
+                return AssemblaJson.internRole(in.readUTF());
+            default:
+                throw new IOException("Invalid role code " + code);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.AssemblaExecutors;
+import com.assembla.jenkinsci.plugin.api.Authorization;
+import com.assembla.jenkinsci.plugin.api.CacheStatistics;
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import com.assembla.jenkinsci.plugin.api.UserHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Realm level directory of space users indexed by login (case insensitive) and
+ * by id. Used by AssemblaSecurityRealm.loadUserByUsername(), so users can be
+ * looked up from any thread (builds, SCM triggers, API token authentication),
+ * not only from request thread of authenticated user.
+ *
+ * Users are loaded from Assembla API using access token of last logged in
+ * user and refreshed periodically by UserDirectoryRefresher. Loaded users are
+ * persisted, so directory is not empty after restart until somebody logs in.
+ * Users who left the space are dropped by refresh.
+ *
+ * @author Damir Milovic
+ */
+public class UserDirectory {
+
+    private static final Logger LOG = Logger.getLogger(UserDirectory.class.getName());
+    private static final ExecutorService REFRESH_EXECUTOR = AssemblaExecutors.newBoundedExecutor("Assembla user directory refresh", 1, 8);
+    private final String spaceId;
+    // file users are persisted to, null if they are not persisted
+    private final UserDirectoryFile file;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private volatile AccessTokenManager tokenManager;
+    // maps are replaced by refresh, users are added to them and removed under lock of this
+    private volatile Map<String, UserAssembla> usersByLogin = new ConcurrentHashMap<String, UserAssembla>();
+    private volatile Map<String, UserAssembla> usersById = new ConcurrentHashMap<String, UserAssembla>();
+    // users added while refresh is in progress, guarded by this
+    private final List<UserAssembla> addedDuringRefresh = new ArrayList<UserAssembla>();
+    // users removed while refresh is in progress, guarded by this
+    private final List<UserAssembla> removedDuringRefresh = new ArrayList<UserAssembla>();
+    private int refreshesInProgress; // guarded by this
+    private volatile long loadTime;
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    /**
+     * @param directory directory users are persisted to, null if they should
+     * not be persisted
+     */
+    public UserDirectory(String spaceId, File directory) {
+        this.spaceId = spaceId;
+        this.file = (directory != null && spaceId != null) ? UserDirectoryFile.forSpace(directory, spaceId) : null;
+        restore();
+    }
+
+    /**
+     * @return user with given login (case insensitive) or null if user is unknown.
+     */
+    public UserAssembla getByLogin(String login) {
+        return count((login != null) ? usersByLogin.get(login.toLowerCase(Locale.ENGLISH)) : null);
+    }
+
+    /**
+     * @return user with given Assembla id or null if user is unknown.
+     */
+    public UserAssembla getById(String id) {
+        return count((id != null) ? usersById.get(id) : null);
+    }
+
+    private UserAssembla count(UserAssembla user) {
+        if (user != null) {
+            statistics.hit();
+        } else {
+            statistics.miss();
+        }
+        return user;
+    }
+
+    /**
+     * Adds logged in user (who may not be space member, such user is kept
+     * until next refresh) and remembers user's access token for further
+     * directory refreshes.
+     */
+    public void add(UserAssembla user, AccessTokenManager tokenManager) {
+        synchronized (this) {
+            index(user, usersByLogin, usersById);
+            if (refreshesInProgress > 0) {
+                // directory being loaded could miss user (e.g. user just joined space)
+                addedDuringRefresh.add(user);
+                removedDuringRefresh.remove(user);
+            }
+        }
+        if (tokenManager != null) {
+            this.tokenManager = tokenManager;
+            if (loadTime == 0) {
+                // first login, do not wait for UserDirectoryRefresher
+                scheduleRefresh();
+            }
+        }
+    }
+
+    /**
+     * Adds user authenticated without session (e.g. script), unless user is
+     * already known. Known user is found without locking directory, so it
+     * can be called for every request.
+     */
+    public void addIfAbsent(UserAssembla user) {
+        if (user.id == null || !usersById.containsKey(user.id)) {
+            add(user, null);
+        }
+    }
+
+    /**
+     * Removes user from directory (e.g. user was removed from space), user is
+     * added again by next refresh if the user is still space member.
+     *
+     * @param user user id or login
+     * @return removed user or null if user is unknown
+     */
+    public synchronized UserAssembla remove(String user) {
+        UserAssembla result = usersById.get(user);
+        if (result == null) {
+            result = usersByLogin.get(user.toLowerCase(Locale.ENGLISH));
+        }
+        if (result != null) {
+            unindex(result, usersByLogin, usersById);
+            if (refreshesInProgress > 0) {
+                // directory being loaded could still contain user
+                addedDuringRefresh.remove(result);
+                removedDuringRefresh.add(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return access token of last logged in user, used for directory refreshes.
+     */
+    public AccessTokenManager getTokenManager() {
+        return tokenManager;
+    }
+
+    /**
+     * Waits until refreshes scheduled so far are finished (refresh executor
+     * has single thread), e.g. in tests.
+     */
+    static void awaitScheduledRefreshes() throws InterruptedException, ExecutionException {
+        REFRESH_EXECUTOR.submit(new Runnable() {
+
+            public void run() {
+            }
+        }).get();
+    }
+
+    /**
+     * Refreshes directory in background, unless refresh is already scheduled
+     * and not started yet. Refresh requested while other refresh is running
+     * runs after it.
+     */
+    public void scheduleRefresh() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            REFRESH_EXECUTOR.execute(new Runnable() {
+
+                public void run() {
+                    refreshScheduled.set(false);
+                    refresh();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            refreshScheduled.set(false);
+        }
+    }
+
+    /**
+     * Reloads space users from Assembla API, users who are not space members
+     * anymore are dropped. Previous users are kept if reload fails.
+     *
+     * @return true if users were reloaded.
+     */
+    public boolean refresh() {
+        AccessTokenManager manager = tokenManager;
+        if (manager == null || spaceId == null) {
+            LOG.fine("refresh() - no user logged in yet");
+            return false;
+        }
+        synchronized (this) {
+            refreshesInProgress++;
+        }
+        try {
+            return reload(manager);
+        } finally {
+            synchronized (this) {
+                if (--refreshesInProgress == 0) {
+                    addedDuringRefresh.clear();
+                    removedDuringRefresh.clear();
+                }
+            }
+        }
+    }
+
+    private boolean reload(AccessTokenManager manager) {
+        final Map<String, UserAssembla> byLogin = new ConcurrentHashMap<String, UserAssembla>();
+        final Map<String, UserAssembla> byId = new ConcurrentHashMap<String, UserAssembla>();
+        Boolean complete = manager.execute(new AccessTokenManager.ApiCall<Boolean>() {
+
+            public Boolean call(Authorization authorization) {
+                byLogin.clear(); // retried with refreshed token
+                byId.clear();
+                return ApiService.getSpaceUsers(authorization, spaceId, new UserHandler() {
+
+                    public void user(UserAssembla user) {
+                        index(user, byLogin, byId);
+                    }
+                });
+            }
+        });
+        if (!Boolean.TRUE.equals(complete)) {
+            LOG.log(Level.WARNING, "refresh() - users of space {0} were not loaded", spaceId);
+            return false;
+        }
+        synchronized (this) {
+            for (UserAssembla user : addedDuringRefresh) {
+                if (user.id == null || !byId.containsKey(user.id)) {
+                    index(user, byLogin, byId);
+                }
+            }
+            for (UserAssembla user : removedDuringRefresh) {
+                unindex(user, byLogin, byId);
+            }
+            usersByLogin = byLogin;
+            usersById = byId;
+        }
+        loadTime = System.currentTimeMillis();
+        LOG.log(Level.FINE, "refresh() - {0} users of space {1} loaded", new Object[]{byId.size(), spaceId});
+        persist(byId);
+        return true;
+    }
+
+    /**
+     * Loads users persisted before restart, they are replaced by first
+     * refresh.
+     */
+    private void restore() {
+        if (file == null) {
+            return;
+        }
+        try {
+            List<UserAssembla> users = file.read(spaceId);
+            if (users != null) {
+                for (UserAssembla user : users) {
+                    index(user, usersByLogin, usersById);
+                }
+                LOG.log(Level.FINE, "restore() - {0} users of space {1} restored", new Object[]{users.size(), spaceId});
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "restore() - can not read " + file.getFile(), ex);
+        }
+    }
+
+    private void persist(Map<String, UserAssembla> byId) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(spaceId, new ArrayList<UserAssembla>(byId.values()));
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "persist() - can not write " + file.getFile(), ex);
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    public int size() {
+        return usersById.size();
+    }
+
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    private static void index(UserAssembla user, Map<String, UserAssembla> byLogin, Map<String, UserAssembla> byId) {
+        if (user.id != null) {
+            byId.put(user.id, user);
+        }
+        if (user.login != null) {
+            byLogin.put(user.login.toLowerCase(Locale.ENGLISH), user);
+        }
+    }
+
+    private static void unindex(UserAssembla user, Map<String, UserAssembla> byLogin, Map<String, UserAssembla> byId) {
+        if (user.id != null) {
+            byId.remove(user.id);
+        }
+        if (user.login != null) {
+            byLogin.remove(user.login.toLowerCase(Locale.ENGLISH));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact binary file holding users of space (id, login and name), so
+ * UserDirectory can resolve users right after Jenkins restart, before anybody
+ * logs in and directory can be refreshed from Assembla API.
+ *
+ * Format (version 1): magic, version, space id, number of users and for every
+ * user id, login and name (each preceded by flag whether it is present).
+ *
+ * @author Damir Milovic
+ */
+public class UserDirectoryFile {
+
+    private static final int MAGIC = 0x41555352; // "AUSR"
+    private static final int VERSION = 1;
+    private final File file;
+
+    public UserDirectoryFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return users file of space in directory
+     */
+    public static UserDirectoryFile forSpace(File directory, String spaceId) {
+        return new UserDirectoryFile(SnapshotFiles.forSpace(directory, "users-", spaceId, ".snapshot"));
+    }
+
+    /**
+     * @return users or null if file does not exist, was written by other
+     * version of this plugin or for other space.
+     */
+    public List<UserAssembla> read(String spaceId) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(spaceId)) {
+                return null;
+            }
+            int count = in.readInt();
+            List<UserAssembla> users = new ArrayList<UserAssembla>(count);
+            for (int i = 0; i < count; i++) {
+                UserAssembla user = new UserAssembla();
+                user.id = readString(in);
+                user.login = readString(in);
+                user.name = readString(in);
+                users.add(user);
+            }
+            return users;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes users atomically, see SnapshotFiles.write().
+     */
+    public void write(final String spaceId, final Collection<UserAssembla> users) throws IOException {
+        SnapshotFiles.write(file, new SnapshotFiles.Content() {
+
+            public void write(DataOutputStream out) throws IOException {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(spaceId);
+                out.writeInt(users.size());
+                for (UserAssembla user : users) {
+                    writeString(out, user.id);
+                    writeString(out, user.login);
+                    writeString(out, user.name);
+                }
+            }
+        });
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.assembla.jenkinsci.plugin;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.PeriodicWork;
+import hudson.security.SecurityRealm;
+
+/**
+ * Periodically reloads users of Assembla space into realm UserDirectory.
+ *
+ * @author Damir Milovic
+ */
+@Extension
+public class UserDirectoryRefresher extends PeriodicWork {
+
+    // Refresh interval of user directory
+    public static final long REFRESH_INTERVAL = Long.getLong(UserDirectoryRefresher.class.getName() + ".interval", 10 * MIN);
+
+    @Override
+    public long getRecurrencePeriod() {
+        return REFRESH_INTERVAL;
+    }
+
+    @Override
+    protected void doRun() {
+        SecurityRealm realm = Hudson.getInstance().getSecurityRealm();
+        if (realm instanceof AssemblaSecurityRealm) {
+            ((AssemblaSecurityRealm) realm).getUserDirectory().refresh();
+        }
+    }
+}
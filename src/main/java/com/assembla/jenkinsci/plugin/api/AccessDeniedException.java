@@ -0,0 +1,22 @@
+package com.assembla.jenkinsci.plugin.api;
+
+/**
+ * Thrown when credentials of caller do not grant access to Assembla API
+ * resource: Assembla API responds with 403 Forbidden (e.g. user is not space
+ * member), or rejects script credentials, which can not be refreshed.
+ *
+ * @author Damir Milovic
+ */
+public class AccessDeniedException extends RuntimeException {
+
+    public AccessDeniedException(String url) {
+        super("Access to Assembla API resource denied: " + url);
+    }
+
+    /**
+     * @param cause rejection of credentials which can not be refreshed
+     */
+    public AccessDeniedException(UnauthorizedException cause) {
+        super(cause.getMessage(), cause);
+    }
+}
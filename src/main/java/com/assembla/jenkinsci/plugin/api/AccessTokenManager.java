@@ -0,0 +1,151 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps access token of one authenticated user valid. Access token is refreshed
+ * only when it expires in less than REFRESH_MARGIN (or Assembla API rejects it),
+ * instead of refreshing it before every API call. Only token pair is kept (it
+ * is held by session), client ID and secret are configured by ApiService.
+ *
+ * @author Damir Milovic
+ */
+public class AccessTokenManager implements Serializable {
+
+    private static final Logger LOGGER = Logger.getLogger(AccessTokenManager.class.getName());
+    // Refresh access token when it expires in less than this time
+    public static final long REFRESH_MARGIN = Long.getLong(AccessTokenManager.class.getName() + ".refreshMargin", 60000L); // 1 min
+    private static final AtomicLong refreshCount = new AtomicLong();
+    private static final AtomicLong avoidedRefreshCount = new AtomicLong();
+    private String accessToken; // guarded by this
+    private String refreshToken; // guarded by this
+    private long expirationTime; // ms, guarded by this
+
+    /**
+     * Assembla API call done with current access token.
+     */
+    public interface ApiCall<T> {
+
+        T call(Authorization authorization);
+    }
+
+    /**
+     * @param tokensAssembla tokens returned by authorization, issued just now.
+     */
+    public AccessTokenManager(TokenAssembla tokensAssembla) {
+        this.accessToken = tokensAssembla.access_token;
+        this.refreshToken = tokensAssembla.refresh_token;
+        this.expirationTime = computeExpirationTime(tokensAssembla.expires_in);
+    }
+
+    /**
+     * For credentials which are not refreshed, see ScriptCredentials.
+     */
+    protected AccessTokenManager() {
+    }
+
+    /**
+     * @return access token which is valid at least for REFRESH_MARGIN time.
+     */
+    public synchronized String getAccessToken() {
+        if (isExpiring()) {
+            refresh();
+        }
+        return accessToken;
+    }
+
+    /**
+     * Refreshes access token before chain of API calls (e.g. space reload) if
+     * it expires in less than REFRESH_MARGIN. Such chain used to refresh access
+     * token unconditionally, so still valid token is counted as avoided refresh.
+     */
+    public synchronized void refreshIfExpiring() {
+        if (isExpiring()) {
+            refresh();
+        } else {
+            avoidedRefreshCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Invokes API call with valid access token. If Assembla API responds with
+     * 401 Unauthorized, access token is refreshed and call is retried once.
+     *
+     * @return API call result or null if access token can not be refreshed.
+     */
+    public <T> T execute(ApiCall<T> apiCall) {
+        String accessToken = getAccessToken();
+        try {
+            return apiCall.call(Authorization.bearer(accessToken));
+        } catch (UnauthorizedException ex) {
+            LOGGER.log(Level.FINE, "execute() access token rejected, refreshing ...");
+        }
+        synchronized (this) {
+            // other thread could have refreshed it meanwhile
+            if (accessToken == null || accessToken.equals(this.accessToken)) {
+                refresh();
+            }
+            accessToken = this.accessToken;
+        }
+        try {
+            return apiCall.call(Authorization.bearer(accessToken));
+        } catch (UnauthorizedException ex) {
+            LOGGER.log(Level.SEVERE, "execute() access token rejected after refresh", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Invokes API call asynchronously, including access token refresh.
+     *
+     * @param timeout deadline of call in ms
+     * @see #execute(ApiCall)
+     */
+    public <T> ApiFuture<T> executeAsync(final ApiCall<T> apiCall, long timeout) {
+        return ApiService.submit(new Callable<T>() {
+
+            public T call() {
+                return execute(apiCall);
+            }
+        }, timeout);
+    }
+
+    /**
+     * @return number of refresh token API calls done.
+     */
+    public static long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return number of API call chains (space reloads) done with still valid
+     * access token instead of refreshing it first.
+     */
+    public static long getAvoidedRefreshCount() {
+        return avoidedRefreshCount.get();
+    }
+
+    private boolean isExpiring() {
+        return System.currentTimeMillis() + REFRESH_MARGIN >= expirationTime;
+    }
+
+    private void refresh() {
+        refreshCount.incrementAndGet();
+        RefreshTokenResponse response = ApiService.refreshAccessToken(refreshToken);
+        if (response != null && response.access_token != null) {
+            accessToken = response.access_token; // set new access token.
+            expirationTime = computeExpirationTime(response.expires_in);
+        } else {
+            LOGGER.severe("refresh() - access token was not refreshed");
+        }
+    }
+
+    private static long computeExpirationTime(int expiresIn) {
+        // unknown expiration time, refresh token on next use
+        return (expiresIn > 0) ? System.currentTimeMillis() + expiresIn * 1000L : 0;
+    }
+}
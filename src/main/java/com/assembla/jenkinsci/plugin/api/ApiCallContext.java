@@ -0,0 +1,75 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * HTTP requests of one asynchronous API call. Requests are registered by
+ * threads executing them, so cancelled call can abort requests blocked in
+ * socket read (HttpClient does not respond to thread interruption).
+ *
+ * @author Damir Milovic
+ */
+class ApiCallContext {
+
+    private static final ThreadLocal<ApiCallContext> CURRENT = new ThreadLocal<ApiCallContext>();
+    private final Set<HttpUriRequest> requests = new HashSet<HttpUriRequest>(); // guarded by this
+    private boolean aborted; // guarded by this
+
+    /**
+     * @return context of API call executed by current thread, null if thread
+     * does not execute asynchronous API call.
+     */
+    static ApiCallContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Sets context of current thread.
+     *
+     * @return previous context of current thread, to be attached again when
+     * call is finished
+     */
+    static ApiCallContext attach(ApiCallContext context) {
+        ApiCallContext previous = CURRENT.get();
+        if (context != null) {
+            CURRENT.set(context);
+        } else {
+            CURRENT.remove();
+        }
+        return previous;
+    }
+
+    /**
+     * @throws InterruptedIOException if call was already cancelled
+     */
+    synchronized void register(HttpUriRequest request) throws InterruptedIOException {
+        if (aborted) {
+            throw new InterruptedIOException("API call was cancelled: " + request.getURI());
+        }
+        requests.add(request);
+    }
+
+    synchronized void unregister(HttpUriRequest request) {
+        requests.remove(request);
+    }
+
+    /**
+     * Aborts running requests of call, further requests are refused.
+     */
+    void abort() {
+        List<HttpUriRequest> running;
+        synchronized (this) {
+            aborted = true;
+            running = new ArrayList<HttpUriRequest>(requests);
+            requests.clear();
+        }
+        for (HttpUriRequest request : running) {
+            request.abort();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Result of asynchronous Assembla API call. Cancelling it (explicitly or when
+ * deadline of call passes) aborts HTTP requests of the call.
+ *
+ * @author Damir Milovic
+ */
+public class ApiFuture<T> extends FutureTask<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(ApiFuture.class.getName());
+    private final ApiCallContext context;
+    private volatile Future<?> deadline;
+
+    /**
+     * Call nested in other asynchronous call shares its context, so it is
+     * aborted together with it.
+     */
+    ApiFuture(Callable<T> callable) {
+        this(callable, ApiCallContext.current() != null ? ApiCallContext.current() : new ApiCallContext());
+    }
+
+    private ApiFuture(final Callable<T> callable, final ApiCallContext context) {
+        super(new Callable<T>() {
+
+            public T call() throws Exception {
+                ApiCallContext previous = ApiCallContext.attach(context);
+                try {
+                    return callable.call();
+                } finally {
+                    ApiCallContext.attach(previous);
+                }
+            }
+        });
+        this.context = context;
+    }
+
+    void setDeadline(Future<?> deadline) {
+        this.deadline = deadline;
+        if (isDone()) {
+            // call finished before its deadline was set
+            cancelDeadline();
+        }
+    }
+
+    /**
+     * Completes call which was not accepted by executor.
+     */
+    void reject(RuntimeException ex) {
+        setException(ex);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            context.abort();
+        }
+        return cancelled;
+    }
+
+    @Override
+    protected void done() {
+        cancelDeadline();
+    }
+
+    private void cancelDeadline() {
+        Future<?> timer = deadline;
+        if (timer != null && timer.cancel(false)) {
+            ApiService.onDeadlineCancelled();
+        }
+    }
+
+    /**
+     * Waits for result of API call, at most until deadline of call passes.
+     *
+     * @return result of call or null if call failed, was cancelled or was
+     * rejected (too many calls waiting)
+     * @throws UnauthorizedException if access token was rejected
+     */
+    public T await() {
+        try {
+            return get();
+        } catch (CancellationException ex) {
+            LOGGER.log(Level.WARNING, "await() - API call cancelled or deadline passed");
+        } catch (InterruptedException ex) {
+            cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RejectedExecutionException) {
+                LOGGER.log(Level.WARNING, "await() - API call rejected, too many calls waiting");
+                return null;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            LOGGER.log(Level.SEVERE, "await()", cause);
+        }
+        return null;
+    }
+}
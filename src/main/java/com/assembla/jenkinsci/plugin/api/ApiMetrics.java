@@ -0,0 +1,56 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metrics of Assembla API endpoints used by the plugin.
+ *
+ * @author Damir Milovic
+ */
+public class ApiMetrics {
+
+    public static final String ENDPOINT_TOKEN = "token";
+    public static final String ENDPOINT_USER = "user";
+    public static final String ENDPOINT_SPACE = "space";
+    public static final String ENDPOINT_SPACE_USERS = "space_users";
+    public static final String ENDPOINT_USER_ROLES = "user_roles";
+    public static final String ENDPOINT_OTHER = "other";
+    private static final Map<String, EndpointMetrics> ENDPOINTS;
+
+    static {
+        Map<String, EndpointMetrics> endpoints = new LinkedHashMap<String, EndpointMetrics>();
+        for (String name : new String[]{ENDPOINT_TOKEN, ENDPOINT_USER, ENDPOINT_SPACE, ENDPOINT_SPACE_USERS,
+                    ENDPOINT_USER_ROLES, ENDPOINT_OTHER}) {
+            endpoints.put(name, new EndpointMetrics(name));
+        }
+        ENDPOINTS = Collections.unmodifiableMap(endpoints);
+    }
+
+    private ApiMetrics() {
+    }
+
+    public static Collection<EndpointMetrics> getEndpoints() {
+        return ENDPOINTS.values();
+    }
+
+    /**
+     * @return metrics of endpoint requested by URI, e.g. /v1/spaces/{id}/user_roles.json
+     */
+    static EndpointMetrics getEndpoint(URI uri) {
+        String path = (uri.getPath() != null) ? uri.getPath() : "";
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.endsWith(".json")) {
+            name = name.substring(0, name.length() - ".json".length());
+        }
+        if (name.equals("users")) {
+            name = ENDPOINT_SPACE_USERS;
+        } else if (!ENDPOINTS.containsKey(name)) {
+            name = path.contains("/spaces/") ? ENDPOINT_SPACE : ENDPOINT_OTHER;
+        }
+        return ENDPOINTS.get(name);
+    }
+}
@@ -1,18 +1,40 @@
 package com.assembla.jenkinsci.plugin.api;
 
+import com.assembla.jenkinsci.plugin.api.RateLimiter.Priority;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.util.EntityUtils;
 
 /**
@@ -29,17 +51,101 @@ public class ApiService {
     static private final Logger LOGGER = Logger.getLogger(ApiService.class.getName());
     static private final String API_HOST_ASSEMBLA = "https://api.assembla.com";
     static private final String API_VERSION = "v1";
-    static private final String URL_ASSEMBLA_API_VERSION = API_HOST_ASSEMBLA + "/" + API_VERSION;
+    static private final String URL_ASSEMBLA_API_VERSION = "/" + API_VERSION;
     static private final String CONTENT_TYPE_JSON = "application/json";
-    // Authentication URLs
-    static private final String URL_COMMENCE_LOGIN = API_HOST_ASSEMBLA + "/authorization?response_type=code&client_id="; // application id
-    static private final String URL_POST_TOKEN_BY_AUTHORIZATION_CODE = API_HOST_ASSEMBLA + "/token?grant_type=authorization_code&code="; // code returned by commence login
-    static private final String URL_POST_REFRESH_TOKEN = API_HOST_ASSEMBLA + "/token?grant_type=refresh_token&refresh_token=%s";
+    static private final String CHARSET_JSON = "UTF-8";
+    // Authentication URLs, relative to Assembla API uri
+    static private final String URL_COMMENCE_LOGIN = "/authorization?response_type=code&client_id="; // application id
+    static private final String URL_POST_TOKEN_BY_AUTHORIZATION_CODE = "/token?grant_type=authorization_code&code="; // code returned by commence login
+    static private final String URL_POST_REFRESH_TOKEN = "/token?grant_type=refresh_token&refresh_token=%s";
     // API methods URLs
     static private final String URL_GET_USER_BY_TOKEN = URL_ASSEMBLA_API_VERSION + "/user.json";
     static private final String URL_GET_SPACE_USERS = URL_ASSEMBLA_API_VERSION + "/spaces/%s/users.json";
     static private final String URL_GET_SPACE_USER_ROLES = URL_ASSEMBLA_API_VERSION + "/spaces/%s/user_roles.json";
     static private final String URL_GET_SPACE = URL_ASSEMBLA_API_VERSION + "/spaces/%s.json"; // space_id
+    static private final String URL_PAGE_PARAMETERS = "?per_page=%d&page=%d";
+    // Assembla API uri configured in security realm, e.g. private install of Assembla
+    static private volatile String apiUri = API_HOST_ASSEMBLA;
+    // Client ID and secret of Jenkins instance configured in security realm, shared by token refreshes of all sessions
+    static private volatile String clientId;
+    static private volatile String clientSecret;
+    // Pagination of space users and user roles
+    static public final int PAGE_SIZE = Integer.getInteger(ApiService.class.getName() + ".pageSize", 100);
+    static public final int PARALLEL_PAGES = Integer.getInteger(ApiService.class.getName() + ".parallelPages", 4);
+    // Paginated response with more pages is not read (100000 entries with default page size)
+    static public final int MAX_PAGES = Integer.getInteger(ApiService.class.getName() + ".maxPages", 1000);
+    static private final ThreadPoolExecutor PAGE_EXECUTOR = AssemblaExecutors.newBoundedExecutor("Assembla API pages", PARALLEL_PAGES, PARALLEL_PAGES * 4);
+
+    // Default deadline of asynchronous API call, cancelled call aborts its HTTP requests
+    static public final long CALL_TIMEOUT = Long.getLong(ApiService.class.getName() + ".callTimeout", 60000L); // 1 min
+    static private final ThreadPoolExecutor ASYNC_EXECUTOR = AssemblaExecutors.newBoundedExecutor("Assembla API",
+            Integer.getInteger(ApiService.class.getName() + ".asyncThreads", 8), 64);
+    // Independent parts of one asynchronous call (e.g. space and user roles of space reload) executed concurrently
+    static private final ThreadPoolExecutor FORK_EXECUTOR = AssemblaExecutors.newBoundedExecutor("Assembla API fork",
+            Integer.getInteger(ApiService.class.getName() + ".forkThreads", 8), 32);
+    static private final ScheduledThreadPoolExecutor DEADLINE_TIMER = AssemblaExecutors.newScheduledExecutor("Assembla API deadline");
+    // Cancelled deadlines stay in timer queue until their time passes, they are purged after this many cancellations
+    static private final int DEADLINE_PURGE_INTERVAL = 100;
+    static private final AtomicInteger CANCELLED_DEADLINES = new AtomicInteger();
+    // Requests fail fast while Assembla API is failing
+    static private final CircuitBreaker CIRCUIT_BREAKER = new CircuitBreaker("Assembla API",
+            Integer.getInteger(ApiService.class.getName() + ".failureThreshold", 5),
+            Long.getLong(ApiService.class.getName() + ".openDuration", 30000L)); // 30 sec
+    // Requests per second sent to Assembla API (0 for unlimited), waiting requests are served by priority
+    static private final RateLimiter RATE_LIMITER = new RateLimiter(
+            Double.parseDouble(System.getProperty(ApiService.class.getName() + ".rateLimit", "0")),
+            Integer.getInteger(ApiService.class.getName() + ".rateBurst", 20),
+            Long.getLong(ApiService.class.getName() + ".rateLimitWait", 30000L)); // 30 sec
+    static private final int SC_TOO_MANY_REQUESTS = 429;
+    static private final int MAX_RATE_LIMITED_RETRIES = 2;
+    // Decoded responses of conditional requests with their validators
+    static private final ConditionalGetCache CONDITIONAL_GET_CACHE = new ConditionalGetCache(
+            Integer.getInteger(ApiService.class.getName() + ".conditionalCacheSize", 1000));
+
+    static {
+        // never drop page requests, read page in calling thread instead
+        PAGE_EXECUTOR.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // never drop part of call, execute it in calling thread instead
+        FORK_EXECUTOR.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Sets uri of Assembla API used by all API calls.
+     *
+     * @param uri e.g. https://api.assembla.com, null for default
+     */
+    static public void setApiUri(String uri) {
+        String result = (uri != null) ? uri.trim() : "";
+        while (result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        apiUri = (result.length() > 0) ? result : API_HOST_ASSEMBLA;
+        LOGGER.log(Level.FINE, "setApiUri() - {0}", apiUri);
+    }
+
+    static public String getApiUri() {
+        return apiUri;
+    }
+
+    /**
+     * Resets state shared by all API calls: closes circuit breaker, resets
+     * rate limiter and forgets responses cached for conditional requests, e.g.
+     * between tests.
+     */
+    static public void reset() {
+        CIRCUIT_BREAKER.reset();
+        RATE_LIMITER.reset();
+        CONDITIONAL_GET_CACHE.clear();
+    }
+
+    /**
+     * Sets client ID and secret used by access token refreshes, so sessions do
+     * not need to keep their copy.
+     */
+    static public void setClient(String id, String secret) {
+        clientId = id;
+        clientSecret = secret;
+    }
 
     /**
      * Creates Assembla URL authorization by code using provided clientId.
@@ -49,7 +155,7 @@ public class ApiService {
      */
     static public String createAuthorizationCodeURL(String clientId) {
         LOGGER.log(Level.FINER, "getCommencLoginUrl() clientId = " + clientId);
-        return URL_COMMENCE_LOGIN + clientId;
+        return apiUri + URL_COMMENCE_LOGIN + clientId;
     }
 
 
@@ -58,11 +164,12 @@ public class ApiService {
      * @param url API method url
      * @param clientId
      * @param clientSecret
+     * @param priority priority of request when rate of requests is limited
      * @return String representing response from API
      * @throws IOException
      * @throws AuthenticationException 
      */
-    static private String httpPostAuthenticated(String url, String clientId, String clientSecret) throws IOException, AuthenticationException {
+    static private String httpPostAuthenticated(String url, String clientId, String clientSecret, Priority priority) throws IOException, AuthenticationException {
         String result = null;
         HttpPost httpost = new HttpPost(url);
         // Basic preemtive authorization, found at:
@@ -70,14 +177,18 @@ public class ApiService {
         UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(clientId, clientSecret);
         Header authenticateHeader = new BasicScheme().authenticate(credentials, httpost);
         httpost.addHeader(authenticateHeader);
-        DefaultHttpClient httpclient = new DefaultHttpClient();
-        HttpResponse response = httpclient.execute(httpost);
-        HttpEntity entity = response.getEntity();
-        result = EntityUtils.toString(entity);
-        // When HttpClient instance is no longer needed,
-        // shut down the connection manager to ensure
-        // immediate deallocation of all system resources
-        httpclient.getConnectionManager().shutdown();
+        ApiCallContext context = register(httpost);
+        try {
+            HttpResponse response = execute(httpost, priority);
+            HttpEntity entity = response.getEntity();
+            // reading entity content releases connection back to the pool
+            result = EntityUtils.toString(entity);
+        } catch (IOException ex) {
+            httpost.abort();
+            throw ex;
+        } finally {
+            unregister(context, httpost);
+        }
         LOGGER.log(Level.FINER, "HTTP POST  content = " + result);
         return result;
     }
@@ -92,16 +203,13 @@ public class ApiService {
      */
     static public TokenAssembla getTokenByAuthorizationCode(String code, String clientId, String clientSecret) {
         TokenAssembla result = null;
-        String url = URL_POST_TOKEN_BY_AUTHORIZATION_CODE + code;
+        String url = apiUri + URL_POST_TOKEN_BY_AUTHORIZATION_CODE + code;
         LOGGER.log(Level.FINER, "finishLoginGetAccessToken() URL = " + url);
         try {
-            String content = httpPostAuthenticated(url, clientId, clientSecret);
+            String content = httpPostAuthenticated(url, clientId, clientSecret, Priority.LOGIN);
             // JSON parse
-            Gson gson = new Gson();
+            Gson gson = AssemblaJson.get();
             result = gson.fromJson(content, TokenAssembla.class);
-            // preserve for further API refresh token calls;
-            result.clientId = clientId;
-            result.clientSecret = clientSecret;
         } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, null, ex);
         }
@@ -117,101 +225,832 @@ public class ApiService {
      * @return String new access_token
      */
     static public String postRefreshAccessToken(String refresh_token, String clientId, String clientSecret) {
-        String url = String.format(URL_POST_REFRESH_TOKEN, refresh_token);
-        String accessToken = null;
-        LOGGER.log(Level.FINER, "postRefreshAccessToken() URL = " + url);
+        RefreshTokenResponse response = refreshAccessToken(refresh_token, clientId, clientSecret);
+        return (response != null) ? response.access_token : null;
+    }
+
+    /**
+     * Refresh access token using client ID and secret configured by setClient().
+     *
+     * @param refresh_token
+     * @return RefreshTokenResponse - new access_token and its expiration time, or null if refresh failed
+     */
+    static public RefreshTokenResponse refreshAccessToken(String refresh_token) {
+        return refreshAccessToken(refresh_token, clientId, clientSecret);
+    }
+
+    /**
+     * Refresh access token (avoid expiration)
+     *
+     * @param refresh_token
+     * @param clientId
+     * @param clientSecret
+     * @return RefreshTokenResponse - new access_token and its expiration time, or null if refresh failed
+     */
+    static public RefreshTokenResponse refreshAccessToken(String refresh_token, String clientId, String clientSecret) {
+        String url = apiUri + String.format(URL_POST_REFRESH_TOKEN, refresh_token);
+        RefreshTokenResponse result = null;
+        LOGGER.log(Level.FINER, "refreshAccessToken() URL = " + url);
         try {
-            String content = httpPostAuthenticated(url, clientId, clientSecret);
+            String content = httpPostAuthenticated(url, clientId, clientSecret, Priority.TOKEN_REFRESH);
             // JSON parse
-            Gson gson = new Gson();
-            RefreshTokenResponse refreshTokenresponse = gson.fromJson(content, RefreshTokenResponse.class);
-            accessToken = refreshTokenresponse.access_token;
+            Gson gson = AssemblaJson.get();
+            result = gson.fromJson(content, RefreshTokenResponse.class);
         } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, null, ex);
         }
-        return accessToken;
+        return result;
     }
 
-    static public UserAssembla getUserByToken(String access_token) {
-        LOGGER.log(Level.FINER, "getUserByToken() URL = " + URL_GET_USER_BY_TOKEN);
+    static public UserAssembla getUserByToken(Authorization authorization) {
+        String url = apiUri + URL_GET_USER_BY_TOKEN;
+        LOGGER.log(Level.FINER, "getUserByToken() URL = " + url);
         UserAssembla user = null;
         try {
-            String content = httpGet(URL_GET_USER_BY_TOKEN, access_token);
+            String content = httpGet(url, authorization, Priority.LOGIN);
             LOGGER.log(Level.FINER, "content = {0}", content);
-            Gson gson = new Gson();
+            Gson gson = AssemblaJson.get();
             user = gson.fromJson(content, UserAssembla.class);
 
+        } catch (UnauthorizedException ex) {
+            // let caller refresh access token and retry
+            throw ex;
         } catch (Exception ex) {
             Logger.getLogger(ApiService.class.getName()).log(Level.SEVERE, null, ex);
         }
         return user;
     }
 
-    static public UserAssembla[] getSpaceUsers(String access_token, String spaceId) {
-        String url = String.format(URL_GET_SPACE_USERS, spaceId);
+    /**
+     * Gets user identified by Assembla API key and secret, used by scripts
+     * instead of oAuth tokens.
+     *
+     * @return user or null if credentials are not valid
+     */
+    static public UserAssembla getUserByApiKey(String apiKey, String apiSecret) {
+        String url = apiUri + URL_GET_USER_BY_TOKEN;
+        LOGGER.log(Level.FINER, "getUserByApiKey() URL = {0}", url);
+        UserAssembla user = null;
+        try {
+            String content = httpGet(url, Authorization.apiKey(apiKey, apiSecret), Priority.LOGIN);
+            user = AssemblaJson.get().fromJson(content, UserAssembla.class);
+        } catch (UnauthorizedException ex) {
+            LOGGER.log(Level.FINE, "getUserByApiKey() - API key rejected");
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "getUserByApiKey()", ex);
+        }
+        return user;
+    }
+
+    static public UserAssembla[] getSpaceUsers(Authorization authorization, String spaceId) {
+        String url = apiUri + String.format(URL_GET_SPACE_USERS, spaceId);
         LOGGER.log(Level.FINER, "getSpaceUsers() URL = {0}", url);
         UserAssembla[] users = null;
         try {
-            String content = httpGet(url, access_token);
-            Gson gson = new Gson();
-            users = gson.fromJson(content, UserAssembla[].class);
+            final Gson gson = AssemblaJson.get();
+            final Map<Integer, UserAssembla[]> pages = new ConcurrentHashMap<Integer, UserAssembla[]>();
+            int count = httpGetPages(url, authorization, new StreamedPageReader() {
+
+                public Page readPage(int page, JsonReader reader) throws IOException {
+                    UserAssembla[] pageUsers = gson.fromJson(reader, UserAssembla[].class);
+                    pages.put(page, pageUsers);
+                    return new Page(pageUsers.length, (pageUsers.length > 0) ? pageUsers[0].id : null);
+                }
+            });
+            users = mergePages(pages, count, new UserAssembla[0]);
             LOGGER.log(Level.FINER, "content users count: {0}", users.length);
 
+        } catch (UnauthorizedException ex) {
+            // let caller refresh access token and retry
+            throw ex;
         } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, null, ex);
         }
         return users;
     }
 
-    static public SpaceAssembla getSpace(String access_token, String spaceId) {
-        String url = String.format(URL_GET_SPACE, spaceId);
+    /**
+     * Streams space users to handler, decoding only id, login and name fields.
+     * Pages are read concurrently, so handler has to be thread safe.
+     *
+     * @return true if all space users were read
+     */
+    static public boolean getSpaceUsers(Authorization authorization, String spaceId, final UserHandler handler) {
+        String url = apiUri + String.format(URL_GET_SPACE_USERS, spaceId);
+        LOGGER.log(Level.FINER, "getSpaceUsers() URL = {0}", url);
+        boolean result = false;
+        try {
+            httpGetPages(url, authorization, new StreamedPageReader() {
+
+                public Page readPage(int page, JsonReader reader) throws IOException {
+                    final String[] firstId = new String[1];
+                    int count = readUsers(reader, new UserHandler() {
+
+                        public void user(UserAssembla user) {
+                            if (firstId[0] == null) {
+                                firstId[0] = user.id;
+                            }
+                            handler.user(user);
+                        }
+                    });
+                    return new Page(count, firstId[0]);
+                }
+            });
+            result = true;
+        } catch (UnauthorizedException ex) {
+            // let caller refresh access token and retry
+            throw ex;
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "getSpaceUsers()", ex);
+        }
+        return result;
+    }
+
+    static public SpaceAssembla getSpace(Authorization authorization, String spaceId) {
+        String url = apiUri + String.format(URL_GET_SPACE, spaceId);
         LOGGER.log(Level.FINER, "getSpace() URL = {0}", url);
         SpaceAssembla result = null;
         try {
-            String content = httpGet(url, access_token);
-            LOGGER.log(Level.FINER, "getSpace() content = {0}", content);
-            Gson gson = new Gson();
-            result = gson.fromJson(content, SpaceAssembla.class);
+            // space settings rarely change, decoded space is reused if it was not modified
+            result = httpGetConditional(url, authorization, SPACE_READER);
+        } catch (UnauthorizedException ex) {
+            // let caller refresh access token and retry
+            throw ex;
+        } catch (AccessDeniedException ex) {
+            // failure of caller, not of Assembla API
+            throw ex;
         } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, null, ex);
         }
         return result;
     }
 
-    static public UserRoleAssembla[] getUserRoles(String access_token, String spaceId) {
-        String url = String.format(URL_GET_SPACE_USER_ROLES, spaceId);
+    static public UserRoleAssembla[] getUserRoles(Authorization authorization, String spaceId) {
+        String url = apiUri + String.format(URL_GET_SPACE_USER_ROLES, spaceId);
         LOGGER.log(Level.FINER, "getUserRoles() URL = {0}", url);
         UserRoleAssembla[] result = null;
-        String content = null;
         try {
-            content = httpGet(url, access_token);
-            LOGGER.log(Level.FINER, "getUserRoles() content = {0}", content);
-            Gson gson = new Gson();
-            result = gson.fromJson(content, UserRoleAssembla[].class);
+            final Gson gson = AssemblaJson.get();
+            final Map<Integer, UserRoleAssembla[]> pages = new ConcurrentHashMap<Integer, UserRoleAssembla[]>();
+            int count = httpGetPages(url, authorization, new StreamedPageReader() {
+
+                public Page readPage(int page, JsonReader reader) throws IOException {
+                    UserRoleAssembla[] pageRoles = gson.fromJson(reader, UserRoleAssembla[].class);
+                    pages.put(page, pageRoles);
+                    return new Page(pageRoles.length, (pageRoles.length > 0) ? pageRoles[0].user_id : null);
+                }
+            });
+            result = mergePages(pages, count, new UserRoleAssembla[0]);
+        } catch (UnauthorizedException ex) {
+            // let caller refresh access token and retry
+            throw ex;
         } catch (Exception ex) {
-            LOGGER.log(Level.SEVERE, "getUserRoles() content = "+content +"\n"+ ex.toString());
+            LOGGER.log(Level.SEVERE, "getUserRoles()", ex);
         }
         return result;
     }
 
+    /**
+     * Streams user roles of space to handler, decoding only user_id and role
+     * fields. Avoids buffering whole response and creating UserRoleAssembla
+     * objects for large spaces. Pages are read concurrently, so handler has to
+     * be thread safe. Pages are requested conditionally, page which was not
+     * modified since last call is not downloaded and decoded again.
+     *
+     * @return true if all user roles were read
+     */
+    static public boolean getUserRoles(Authorization authorization, String spaceId, final UserRoleHandler handler) {
+        String url = apiUri + String.format(URL_GET_SPACE_USER_ROLES, spaceId);
+        LOGGER.log(Level.FINER, "getUserRoles() URL = {0}", url);
+        boolean result = false;
+        try {
+            httpGetPages(url, authorization, new PageReader() {
+
+                public Page read(String pageUrl, int page, Authorization authorization) throws IOException {
+                    // user roles rarely change, page is usually not modified since last reload
+                    UserRolesPage userRoles = httpGetConditional(pageUrl, authorization, USER_ROLES_PAGE_READER);
+                    return (userRoles != null) ? userRoles.replay(handler) : Page.EMPTY;
+                }
+            });
+            result = true;
+        } catch (UnauthorizedException ex) {
+            // let caller refresh access token and retry
+            throw ex;
+        } catch (AccessDeniedException ex) {
+            // failure of caller, not of Assembla API
+            throw ex;
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "getUserRoles()", ex);
+        }
+        return result;
+    }
+
+    /**
+     * Executes API call asynchronously. Call is cancelled (and its HTTP
+     * requests are aborted) if it does not finish in timeout. Call nested in
+     * other asynchronous call is executed by calling thread, under deadline of
+     * outer call.
+     *
+     * @param timeout deadline of call in ms
+     */
+    static public <T> ApiFuture<T> submit(Callable<T> call, long timeout) {
+        final ApiFuture<T> future = new ApiFuture<T>(call);
+        if (ApiCallContext.current() != null) {
+            future.run();
+            return future;
+        }
+        try {
+            ASYNC_EXECUTOR.execute(future);
+            future.setDeadline(DEADLINE_TIMER.schedule(new Runnable() {
+
+                public void run() {
+                    if (future.cancel(true)) {
+                        LOGGER.log(Level.WARNING, "API call cancelled, deadline passed");
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException ex) {
+            // too many calls waiting, fail fast instead of blocking caller
+            future.reject(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Called when deadline of finished call is cancelled. Java 6 timer has no
+     * remove on cancel policy, so cancelled deadlines are purged periodically
+     * instead of piling up in its queue for CALL_TIMEOUT.
+     */
+    static void onDeadlineCancelled() {
+        if (CANCELLED_DEADLINES.incrementAndGet() % DEADLINE_PURGE_INTERVAL == 0) {
+            DEADLINE_TIMER.purge();
+        }
+    }
+
+    /**
+     * Executes independent part of current asynchronous API call concurrently
+     * with the rest of the call. Unlike nested submit() it is not executed by
+     * calling thread (unless executor is full), but it shares context of the
+     * call, so its HTTP requests are aborted when deadline of the call passes.
+     * Caller joins it by ApiFuture.await().
+     */
+    static public <T> ApiFuture<T> fork(Callable<T> call) {
+        ApiFuture<T> future = new ApiFuture<T>(call);
+        FORK_EXECUTOR.execute(future);
+        return future;
+    }
+
+    /**
+     * Reads JSON array of user roles, skipping fields which are not needed.
+     *
+     * @return number of user roles read
+     */
+    static int readUserRoles(JsonReader reader, UserRoleHandler handler) throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String userId = null;
+            String role = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (name.equals("user_id")) {
+                    userId = reader.nextString();
+                } else if (name.equals("role")) {
+                    role = AssemblaJson.internRole(reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            count++;
+            if (userId != null) {
+                handler.userRole(userId, role);
+            }
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * Reads JSON array of users, skipping fields which are not needed.
+     *
+     * @return number of users read
+     */
+    static int readUsers(JsonReader reader, UserHandler handler) throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            UserAssembla user = new UserAssembla();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (name.equals("id")) {
+                    user.id = reader.nextString();
+                } else if (name.equals("login")) {
+                    user.login = reader.nextString();
+                } else if (name.equals("name")) {
+                    user.name = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            count++;
+            if (user.id != null) {
+                handler.user(user);
+            }
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * Reads all pages of paginated API method. First page is read by calling
+     * thread, if it is full following pages are requested concurrently
+     * (PARALLEL_PAGES at once) until a page which is not full is found. Page
+     * starting with the same entry as first or previous page means that API
+     * ignored pagination, pages are not requested any more then.
+     *
+     * @return number of pages read, pages after it (if any) were not used
+     * @throws IOException if there are more than MAX_PAGES pages
+     * @throws UnauthorizedException if access token is expired or revoked
+     */
+    static private int httpGetPages(String url, Authorization authorization, PageReader pageReader) throws IOException {
+        Page first = httpGetPage(url, authorization, 1, pageReader);
+        Page previous = first;
+        int pages = 1;
+        // bigger page means API ignored pagination and returned everything
+        while (previous.count == PAGE_SIZE) {
+            if (pages >= MAX_PAGES) {
+                throw new IOException("More than " + MAX_PAGES + " pages: " + url);
+            }
+            List<Future<Page>> wave = new ArrayList<Future<Page>>(PARALLEL_PAGES);
+            for (int i = 1; i <= PARALLEL_PAGES && pages + i <= MAX_PAGES; i++) {
+                wave.add(PAGE_EXECUTOR.submit(new PageCall(url, authorization, pages + i, pageReader)));
+            }
+            try {
+                for (Future<Page> future : wave) {
+                    Page page = getPage(future);
+                    if (page.isRepeatOf(first) || page.isRepeatOf(previous)) {
+                        LOGGER.log(Level.WARNING, "httpGetPages() - page {0} repeats previous page, pagination ignored: {1}",
+                                new Object[]{pages + 1, url});
+                        return pages;
+                    }
+                    if (page.count == 0) {
+                        return pages;
+                    }
+                    pages++;
+                    previous = page;
+                    if (page.count < PAGE_SIZE) {
+                        break;
+                    }
+                }
+            } finally {
+                for (Future<Page> future : wave) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return pages;
+    }
+
+    static private Page httpGetPage(String url, Authorization authorization, int page, PageReader pageReader) throws IOException {
+        return pageReader.read(url + String.format(URL_PAGE_PARAMETERS, PAGE_SIZE, page), page, authorization);
+    }
+
+    static private Page getPage(Future<Page> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading pages");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.toString());
+        }
+    }
+
+    static private <T> T[] mergePages(Map<Integer, T[]> pages, int count, T[] empty) {
+        List<T> result = new ArrayList<T>();
+        for (int page = 1; page <= count && pages.containsKey(page); page++) {
+            result.addAll(Arrays.asList(pages.get(page)));
+        }
+        return result.toArray(empty);
+    }
+
     /**
      * Invokes HTTP GET request to Assembla API.
      *
      * @param url
-     * @param access_token
+     * @param authorization
+     * @param priority priority of request when rate of requests is limited
      * @return String representing response from API (content)
      * @throws IOException
+     * @throws UnauthorizedException if access token is expired or revoked
      */
-    static private String httpGet(String url, String access_token) throws IOException {
+    static private String httpGet(String url, Authorization authorization, Priority priority) throws IOException {
+        return httpGet(createHttpGet(url, authorization), url, priority);
+    }
+
+    static private String httpGet(HttpGet httpGet, String url, Priority priority) throws IOException {
         String result = null;
+        ApiCallContext context = register(httpGet);
+        try {
+            HttpEntity httpEntity = executeGet(httpGet, url, priority).getEntity();
+            // reading entity content releases connection back to the pool
+            result = EntityUtils.toString(httpEntity);
+        } catch (IOException ex) {
+            httpGet.abort();
+            throw ex;
+        } finally {
+            unregister(context, httpGet);
+        }
+        return result;
+    }
+
+    /**
+     * Invokes HTTP GET request to Assembla API and passes JSON response to
+     * reader as stream. Used for paginated space memberships, so request has
+     * RELOAD priority.
+     *
+     * @return value returned by reader, null if there is no content
+     * @throws IOException
+     * @throws UnauthorizedException if access token is expired or revoked
+     */
+    static private <T> T httpGet(String url, Authorization authorization, EntityReader<T> entityReader) throws IOException {
+        HttpGet httpGet = createHttpGet(url, authorization);
+        ApiCallContext context = register(httpGet);
+        try {
+            return read(executeGet(httpGet, url, Priority.RELOAD).getEntity(), entityReader);
+        } catch (IOException ex) {
+            httpGet.abort();
+            throw ex;
+        } finally {
+            unregister(context, httpGet);
+        }
+    }
+
+    /**
+     * Invokes conditional HTTP GET request to Assembla API, with RELOAD
+     * priority. Decoded response is cached together with its validators (ETag,
+     * Last-Modified); if Assembla API responds 304 Not Modified cached value is
+     * returned without decoding response again.
+     *
+     * @return value returned by reader (or cached value), null if there is no content
+     * @throws IOException
+     * @throws UnauthorizedException if access token is expired or revoked
+     */
+    @SuppressWarnings("unchecked")
+    static private <T> T httpGetConditional(String url, Authorization authorization, EntityReader<T> entityReader) throws IOException {
+        ConditionalGetCache.Entry cached = CONDITIONAL_GET_CACHE.get(url);
+        HttpGet httpGet = createHttpGet(url, authorization);
+        if (cached != null) {
+            cached.addValidators(httpGet);
+        }
+        ApiCallContext context = register(httpGet);
+        try {
+            HttpResponse httpResponse = executeGet(httpGet, url, Priority.RELOAD);
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                EntityUtils.consume(httpResponse.getEntity());
+                ApiMetrics.getEndpoint(httpGet.getURI()).notModified();
+                return (T) cached.getValue();
+            }
+            T result = read(httpResponse.getEntity(), entityReader);
+            if (statusCode == HttpStatus.SC_OK && result != null) {
+                CONDITIONAL_GET_CACHE.put(url, httpResponse, result);
+            } else {
+                CONDITIONAL_GET_CACHE.remove(url);
+            }
+            return result;
+        } catch (IOException ex) {
+            httpGet.abort();
+            throw ex;
+        } finally {
+            unregister(context, httpGet);
+        }
+    }
+
+    /**
+     * Passes JSON content of response to reader as stream.
+     *
+     * @return value returned by reader, null if there is no content
+     */
+    static private <T> T read(HttpEntity httpEntity, EntityReader<T> entityReader) throws IOException {
+        if (httpEntity == null) {
+            return null; // 204 No Content, e.g. page after the last one
+        }
+        String charset = EntityUtils.getContentCharSet(httpEntity);
+        InputStream in = httpEntity.getContent();
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(in, (charset != null) ? charset : CHARSET_JSON));
+            return entityReader.read(reader);
+        } finally {
+            // closing content stream releases connection back to the pool
+            in.close();
+        }
+    }
+
+    /**
+     * Registers request in context of asynchronous call executed by current
+     * thread, so it is aborted when call is cancelled.
+     *
+     * @return context of call or null if current thread does not execute asynchronous call
+     * @throws InterruptedIOException if call is already cancelled
+     */
+    static private ApiCallContext register(HttpUriRequest request) throws InterruptedIOException {
+        ApiCallContext context = ApiCallContext.current();
+        if (context != null) {
+            context.register(request);
+        }
+        return context;
+    }
+
+    static private void unregister(ApiCallContext context, HttpUriRequest request) {
+        if (context != null) {
+            context.unregister(request);
+        }
+    }
+
+    /**
+     * Executes request unless circuit breaker is open. Request waits for rate
+     * limiter permit and is retried (at most MAX_RATE_LIMITED_RETRIES times)
+     * if Assembla API responds with 429 Too Many Requests. Network errors and
+     * server errors (5xx) are counted as failures.
+     *
+     * @throws CircuitOpenException if Assembla API is not available
+     * @throws RateLimitedException if Assembla API responds 429 after retries
+     */
+    static private HttpResponse execute(HttpUriRequest request, Priority priority) throws IOException {
+        if (!CIRCUIT_BREAKER.allowRequest()) {
+            throw new CircuitOpenException(request.getURI().toString());
+        }
+        EndpointMetrics endpoint = ApiMetrics.getEndpoint(request.getURI());
+        // outcome must reach circuit breaker on every path, otherwise its probe never ends
+        boolean reported = false;
+        try {
+            for (int attempt = 0;; attempt++) {
+                try {
+                    RATE_LIMITER.acquire(priority);
+                } catch (IOException ex) {
+                    reported = true;
+                    CIRCUIT_BREAKER.onNotSent();
+                    throw ex;
+                }
+                HttpResponse response;
+                long start = System.nanoTime();
+                try {
+                    response = AssemblaHttpClient.execute(request);
+                } catch (IOException ex) {
+                    endpoint.record(System.nanoTime() - start, true);
+                    reported = true;
+                    CIRCUIT_BREAKER.onFailure();
+                    throw ex;
+                }
+                int statusCode = response.getStatusLine().getStatusCode();
+                endpoint.record(System.nanoTime() - start, statusCode >= HttpStatus.SC_BAD_REQUEST);
+                if (statusCode == SC_TOO_MANY_REQUESTS) {
+                    RATE_LIMITER.onRateLimited(getRetryAfter(response));
+                    // release connection before request is sent again (or refused)
+                    EntityUtils.consume(response.getEntity());
+                    if (attempt < MAX_RATE_LIMITED_RETRIES) {
+                        continue;
+                    }
+                    // Assembla API is available, it is neither success nor failure of circuit
+                    reported = true;
+                    CIRCUIT_BREAKER.onNotSent();
+                    throw new RateLimitedException(request.getURI().toString());
+                }
+                RATE_LIMITER.onSuccess();
+                reported = true;
+                if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                    CIRCUIT_BREAKER.onFailure();
+                } else {
+                    CIRCUIT_BREAKER.onSuccess();
+                }
+                return response;
+            }
+        } finally {
+            if (!reported) {
+                // unexpected exception, e.g. IllegalStateException of client shut down
+                CIRCUIT_BREAKER.onFailure();
+            }
+        }
+    }
+
+    /**
+     * @return Retry-After time in ms (header is either seconds or HTTP date),
+     * -1 if it is not sent.
+     */
+    static private long getRetryAfter(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Long.parseLong(value) * 1000;
+        } catch (NumberFormatException ex) {
+            try {
+                return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+            } catch (DateParseException ex2) {
+                LOGGER.log(Level.FINE, "getRetryAfter() - invalid Retry-After: {0}", value);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return rate limiter of all Assembla API requests
+     */
+    static public RateLimiter getRateLimiter() {
+        return RATE_LIMITER;
+    }
+
+    /**
+     * @return circuit breaker guarding all Assembla API requests
+     */
+    static public CircuitBreaker getCircuitBreaker() {
+        return CIRCUIT_BREAKER;
+    }
+
+    static private HttpGet createHttpGet(String url, Authorization authorization) {
         HttpGet httpGet = new HttpGet(url);
-        DefaultHttpClient httpClient = new DefaultHttpClient();
-        httpGet.addHeader("Authorization", "Bearer " + access_token);
+        authorization.apply(httpGet);
         httpGet.addHeader("Content-type", CONTENT_TYPE_JSON);
-        HttpResponse httpResponse = httpClient.execute(httpGet);
-        HttpEntity httpEntity = httpResponse.getEntity();
-        result = EntityUtils.toString(httpEntity);
-        httpClient.getConnectionManager().shutdown();
-        return result;
+        return httpGet;
+    }
+
+    /**
+     * @return response of request, if it is successful (2xx) or 304 Not
+     * Modified
+     * @throws UnauthorizedException if access token is expired or revoked
+     * @throws AccessDeniedException if Assembla API responds 403 Forbidden
+     * @throws UnexpectedResponseException if Assembla API responds with other
+     * status, its content is not read
+     */
+    static private HttpResponse executeGet(HttpGet httpGet, String url, Priority priority) throws IOException {
+        HttpResponse httpResponse = execute(httpGet, priority);
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
+            EntityUtils.consume(httpResponse.getEntity());
+            throw new UnauthorizedException(url);
+        }
+        if (statusCode == HttpStatus.SC_FORBIDDEN) {
+            EntityUtils.consume(httpResponse.getEntity());
+            throw new AccessDeniedException(url);
+        }
+        if ((statusCode < HttpStatus.SC_OK || statusCode >= HttpStatus.SC_MULTIPLE_CHOICES)
+                && statusCode != HttpStatus.SC_NOT_MODIFIED) {
+            EntityUtils.consume(httpResponse.getEntity());
+            throw new UnexpectedResponseException(url, statusCode);
+        }
+        return httpResponse;
+    }
+
+    /**
+     * Reads streamed JSON response.
+     */
+    private interface EntityReader<T> {
+
+        T read(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Reads one page of paginated response.
+     */
+    private interface PageReader {
+
+        /**
+         * @param pageUrl url of page
+         * @return entries read from page
+         */
+        Page read(String pageUrl, int page, Authorization authorization) throws IOException;
+    }
+
+    /**
+     * Number of entries in page and id of its first entry (null if page is
+     * empty), so page repeating other page is recognized.
+     */
+    static private final class Page {
+
+        static final Page EMPTY = new Page(0, null);
+        private final int count;
+        private final String firstId;
+
+        Page(int count, String firstId) {
+            this.count = count;
+            this.firstId = firstId;
+        }
+
+        boolean isRepeatOf(Page other) {
+            return firstId != null && firstId.equals(other.firstId);
+        }
+    }
+
+    /**
+     * Reads one page of paginated JSON response as stream.
+     */
+    static private abstract class StreamedPageReader implements PageReader {
+
+        public Page read(String pageUrl, final int page, Authorization authorization) throws IOException {
+            Page result = httpGet(pageUrl, authorization, new EntityReader<Page>() {
+
+                public Page read(JsonReader reader) throws IOException {
+                    return readPage(page, reader);
+                }
+            });
+            return (result != null) ? result : Page.EMPTY;
+        }
+
+        /**
+         * @return entries read from page
+         */
+        abstract Page readPage(int page, JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Decoded page of user roles, kept while page is not modified.
+     */
+    static private final class UserRolesPage {
+
+        private final int count;
+        private final String[] userRoles; // user id, role pairs
+
+        UserRolesPage(int count, String[] userRoles) {
+            this.count = count;
+            this.userRoles = userRoles;
+        }
+
+        /**
+         * Passes user roles to handler.
+         *
+         * @return user roles read from page
+         */
+        Page replay(UserRoleHandler handler) {
+            for (int i = 0; i < userRoles.length; i += 2) {
+                handler.userRole(userRoles[i], userRoles[i + 1]);
+            }
+            return new Page(count, (userRoles.length > 0) ? userRoles[0] : null);
+        }
+    }
+
+    static private final EntityReader<SpaceAssembla> SPACE_READER = new EntityReader<SpaceAssembla>() {
+
+        public SpaceAssembla read(JsonReader reader) throws IOException {
+            return AssemblaJson.get().fromJson(reader, SpaceAssembla.class);
+        }
+    };
+
+    static private final EntityReader<UserRolesPage> USER_ROLES_PAGE_READER = new EntityReader<UserRolesPage>() {
+
+        public UserRolesPage read(JsonReader reader) throws IOException {
+            final List<String> userRoles = new ArrayList<String>();
+            int count = readUserRoles(reader, new UserRoleHandler() {
+
+                public void userRole(String userId, String role) {
+                    userRoles.add(userId);
+                    userRoles.add(role);
+                }
+            });
+            return new UserRolesPage(count, userRoles.toArray(new String[userRoles.size()]));
+        }
+    };
+
+    static private class PageCall implements Callable<Page> {
+
+        private final String url;
+        private final Authorization authorization;
+        private final int page;
+        private final PageReader pageReader;
+        // pages of cancelled asynchronous call are aborted too
+        private final ApiCallContext context = ApiCallContext.current();
+
+        PageCall(String url, Authorization authorization, int page, PageReader pageReader) {
+            this.url = url;
+            this.authorization = authorization;
+            this.page = page;
+            this.pageReader = pageReader;
+        }
+
+        public Page call() throws IOException {
+            ApiCallContext previous = ApiCallContext.attach(context);
+            try {
+                return httpGetPage(url, authorization, page, pageReader);
+            } finally {
+                ApiCallContext.attach(previous);
+            }
+        }
     }
 }
@@ -0,0 +1,59 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for bounded executors running Assembla API calls outside of Jenkins
+ * request threads. Threads are daemon and die when idle, so executors do not
+ * need to be shut down.
+ *
+ * @author Damir Milovic
+ */
+public class AssemblaExecutors {
+
+    private static final long KEEP_ALIVE_TIME = 60; // sec
+
+    private AssemblaExecutors() {
+    }
+
+    /**
+     * @param name thread name prefix
+     * @param threads maximum number of threads
+     * @param queueSize maximum number of waiting tasks, further tasks are rejected
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(String name, int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @param name thread name prefix
+     * @return executor of delayed tasks, running them in single daemon thread
+     */
+    public static ScheduledThreadPoolExecutor newScheduledExecutor(String name) {
+        return new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(name));
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + " #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
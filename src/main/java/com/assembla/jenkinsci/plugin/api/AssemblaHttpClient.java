@@ -0,0 +1,265 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Holds long-lived, thread-safe HTTP client shared by all ApiService calls.
+ * Connections to Assembla API are pooled and kept alive, so TLS handshake is
+ * not repeated for every API call.
+ *
+ * Limits and timeouts can be tuned with system properties, e.g.
+ * -Dcom.assembla.jenkinsci.plugin.api.AssemblaHttpClient.socketTimeout=30000
+ *
+ * @author Damir Milovic
+ */
+public class AssemblaHttpClient {
+
+    static private final Logger LOGGER = Logger.getLogger(AssemblaHttpClient.class.getName());
+    static private final String PROPERTY_PREFIX = AssemblaHttpClient.class.getName() + ".";
+    static public final int MAX_TOTAL_CONNECTIONS = Integer.getInteger(PROPERTY_PREFIX + "maxTotal", 50);
+    static public final int MAX_CONNECTIONS_PER_ROUTE = Integer.getInteger(PROPERTY_PREFIX + "maxPerRoute", 20);
+    static public final int CONNECT_TIMEOUT = Integer.getInteger(PROPERTY_PREFIX + "connectTimeout", 10000); // ms
+    static public final int SOCKET_TIMEOUT = Integer.getInteger(PROPERTY_PREFIX + "socketTimeout", 30000); // ms
+    // Used when Assembla API does not send Keep-Alive timeout
+    static public final long KEEP_ALIVE_TIME = Long.getLong(PROPERTY_PREFIX + "keepAlive", 30000L); // ms
+    static public final long IDLE_CONNECTION_TIME = Long.getLong(PROPERTY_PREFIX + "idleTimeout", 60000L); // ms
+    // Replaced client is shut down when its requests finish, but not later than this
+    static public final long RETIRE_TIMEOUT = Long.getLong(PROPERTY_PREFIX + "retireTimeout", 120000L); // ms
+    static private final long EVICTION_INTERVAL = 5000; // ms
+    static private DefaultHttpClient httpClient;
+    static private IdleConnectionEvictor evictor;
+
+    /**
+     * Executes request by shared HTTP client, created on first use. Client is
+     * in use until content of response is consumed (or its stream closed), so
+     * it is not shut down by replace() meanwhile.
+     */
+    static public HttpResponse execute(HttpUriRequest request) throws IOException {
+        IdleConnectionEvictor pool = acquire();
+        boolean consumed = true;
+        try {
+            HttpResponse response = pool.client.execute(request);
+            HttpEntity entity = response.getEntity();
+            if (entity != null && entity.isStreaming()) {
+                response.setEntity(new ReleasingEntity(entity, pool));
+                consumed = false;
+            }
+            return response;
+        } finally {
+            if (consumed) {
+                pool.release();
+            }
+        }
+    }
+
+    /**
+     * @return evictor of shared client, with client marked as used
+     */
+    static private synchronized IdleConnectionEvictor acquire() {
+        if (httpClient == null) {
+            httpClient = createHttpClient();
+            evictor = new IdleConnectionEvictor(httpClient);
+            evictor.start();
+            LOGGER.log(Level.FINE, "Created pooled HTTP client (maxTotal = {0}, maxPerRoute = {1})",
+                    new Object[]{MAX_TOTAL_CONNECTIONS, MAX_CONNECTIONS_PER_ROUTE});
+        }
+        evictor.users.incrementAndGet();
+        return evictor;
+    }
+
+    /**
+     * Replaces shared client, e.g. security realm was reconfigured. Next
+     * execute() call creates new client; replaced client is shut down when
+     * requests using it finish (at most RETIRE_TIMEOUT), so they are not
+     * aborted.
+     */
+    static public synchronized void replace() {
+        if (httpClient != null) {
+            evictor.retire(System.currentTimeMillis() + RETIRE_TIMEOUT);
+            evictor = null;
+            httpClient = null;
+            LOGGER.fine("Pooled HTTP client replaced");
+        }
+    }
+
+    /**
+     * Closes all pooled connections, aborting requests in progress. Next
+     * execute() call creates new client, so it is safe to call it when plugin
+     * is stopped.
+     */
+    static public synchronized void shutdown() {
+        if (evictor != null) {
+            evictor.shutdown();
+            evictor = null;
+        }
+        if (httpClient != null) {
+            httpClient.getConnectionManager().shutdown();
+            httpClient = null;
+            LOGGER.fine("Pooled HTTP client shut down");
+        }
+    }
+
+    static private DefaultHttpClient createHttpClient() {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+        schemeRegistry.register(new Scheme("https", 443, SSLSocketFactory.getSocketFactory()));
+
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager(schemeRegistry);
+        connectionManager.setMaxTotal(MAX_TOTAL_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+        DefaultHttpClient client = new DefaultHttpClient(connectionManager, params);
+        client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                // -1 means keep alive forever, limit it
+                return (duration > 0) ? duration : KEEP_ALIVE_TIME;
+            }
+        });
+        return client;
+    }
+
+    /**
+     * Entity of response, marks client as not used by the request when its
+     * content is consumed or content stream is closed.
+     */
+    static private class ReleasingEntity extends HttpEntityWrapper {
+
+        private final IdleConnectionEvictor pool;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingEntity(HttpEntity entity, IdleConnectionEvictor pool) {
+            super(entity);
+            this.pool = pool;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(wrappedEntity.getContent()) {
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void consumeContent() throws IOException {
+            try {
+                wrappedEntity.consumeContent();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                pool.release();
+            }
+        }
+    }
+
+    /**
+     * Background thread closing expired and idle pooled connections. After
+     * client is replaced it closes every idle connection and shuts connection
+     * manager down when no request uses the client (all requests finished and
+     * their responses were consumed).
+     */
+    static private class IdleConnectionEvictor extends Thread {
+
+        private final DefaultHttpClient client;
+        private final ThreadSafeClientConnManager connectionManager;
+        // requests executed by client whose responses were not consumed yet
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile boolean shutdown;
+        // time replaced client is shut down even if it is still used, 0 if it was not replaced
+        private volatile long retireDeadline;
+
+        IdleConnectionEvictor(DefaultHttpClient client) {
+            super("Assembla API idle connection evictor");
+            setDaemon(true);
+            this.client = client;
+            this.connectionManager = (ThreadSafeClientConnManager) client.getConnectionManager();
+        }
+
+        void release() {
+            users.decrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    synchronized (this) {
+                        wait(EVICTION_INTERVAL);
+                    }
+                    connectionManager.closeExpiredConnections();
+                    if (retireDeadline == 0) {
+                        connectionManager.closeIdleConnections(IDLE_CONNECTION_TIME, TimeUnit.MILLISECONDS);
+                        continue;
+                    }
+                    connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+                    if (users.get() == 0 || System.currentTimeMillis() >= retireDeadline) {
+                        connectionManager.shutdown();
+                        LOGGER.fine("Replaced HTTP client shut down");
+                        shutdown = true;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                // terminate
+            }
+        }
+
+        /**
+         * Shuts client down after its requests finish, checked every
+         * EVICTION_INTERVAL. Requests which got client just before it was
+         * replaced are counted as users, so it is not shut down before they
+         * lease connection.
+         */
+        void retire(long deadline) {
+            retireDeadline = deadline;
+        }
+
+        void shutdown() {
+            shutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
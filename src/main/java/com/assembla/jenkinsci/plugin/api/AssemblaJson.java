@@ -0,0 +1,265 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * Shared (thread safe) JSON codec of Assembla API entities. Entities are
+ * decoded by hand written type adapters instead of reflection, reading only
+ * fields used by the plugin; role names are interned, so user roles of all
+ * spaces share the same few strings.
+ *
+ * @author Damir Milovic
+ */
+public class AssemblaJson {
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(TokenAssembla.class, new TokenAdapter())
+            .registerTypeAdapter(RefreshTokenResponse.class, new RefreshTokenAdapter())
+            .registerTypeAdapter(UserAssembla.class, new UserAdapter())
+            .registerTypeAdapter(SpaceAssembla.class, new SpaceAdapter())
+            .registerTypeAdapter(UserRoleAssembla.class, new UserRoleAdapter())
+            .create();
+
+    private AssemblaJson() {
+    }
+
+    /**
+     * @return Gson instance with Assembla entity adapters, it can be used
+     * concurrently.
+     */
+    public static Gson get() {
+        return GSON;
+    }
+
+    /**
+     * @return the same instance for equal role names
+     */
+    public static String internRole(String role) {
+        if (role == null) {
+            return null;
+        } else if (role.equals(ApiService.ASSEMBLA_ROLE_OWNER)) {
+            return ApiService.ASSEMBLA_ROLE_OWNER;
+        } else if (role.equals(ApiService.ASSEMBLA_ROLE_MEMBER)) {
+            return ApiService.ASSEMBLA_ROLE_MEMBER;
+        } else if (role.equals(ApiService.ASSEMBLA_ROLE_WATCHER)) {
+            return ApiService.ASSEMBLA_ROLE_WATCHER;
+        }
+        return role.intern();
+    }
+
+    /**
+     * @return true if object was begun, false if null was read instead
+     */
+    private static boolean beginObject(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        in.beginObject();
+        return true;
+    }
+
+    /**
+     * @return name of next field with non null value, null at the end of object
+     */
+    private static String nextField(JsonReader in) throws IOException {
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() != JsonToken.NULL) {
+                return name;
+            }
+            in.nextNull();
+        }
+        in.endObject();
+        return null;
+    }
+
+    private static class TokenAdapter extends TypeAdapter<TokenAssembla> {
+
+        @Override
+        public TokenAssembla read(JsonReader in) throws IOException {
+            if (!beginObject(in)) {
+                return null;
+            }
+            TokenAssembla result = new TokenAssembla();
+            for (String name = nextField(in); name != null; name = nextField(in)) {
+                if (name.equals("access_token")) {
+                    result.access_token = in.nextString();
+                } else if (name.equals("refresh_token")) {
+                    result.refresh_token = in.nextString();
+                } else if (name.equals("expires_in")) {
+                    result.expires_in = in.nextInt();
+                } else if (name.equals("token_type")) {
+                    result.token_type = in.nextString();
+                } else {
+                    in.skipValue();
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void write(JsonWriter out, TokenAssembla value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("token_type").value(value.token_type);
+            out.name("expires_in").value(value.expires_in);
+            out.name("access_token").value(value.access_token);
+            out.name("refresh_token").value(value.refresh_token);
+            out.endObject();
+        }
+    }
+
+    private static class RefreshTokenAdapter extends TypeAdapter<RefreshTokenResponse> {
+
+        @Override
+        public RefreshTokenResponse read(JsonReader in) throws IOException {
+            if (!beginObject(in)) {
+                return null;
+            }
+            RefreshTokenResponse result = new RefreshTokenResponse();
+            for (String name = nextField(in); name != null; name = nextField(in)) {
+                if (name.equals("access_token")) {
+                    result.access_token = in.nextString();
+                } else if (name.equals("expires_in")) {
+                    result.expires_in = in.nextInt();
+                } else if (name.equals("token_type")) {
+                    result.token_type = in.nextString();
+                } else {
+                    in.skipValue();
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void write(JsonWriter out, RefreshTokenResponse value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("token_type").value(value.token_type);
+            out.name("expires_in").value(value.expires_in);
+            out.name("access_token").value(value.access_token);
+            out.endObject();
+        }
+    }
+
+    private static class UserAdapter extends TypeAdapter<UserAssembla> {
+
+        @Override
+        public UserAssembla read(JsonReader in) throws IOException {
+            if (!beginObject(in)) {
+                return null;
+            }
+            UserAssembla result = new UserAssembla();
+            for (String name = nextField(in); name != null; name = nextField(in)) {
+                if (name.equals("id")) {
+                    result.id = in.nextString();
+                } else if (name.equals("login")) {
+                    result.login = in.nextString();
+                } else if (name.equals("name")) {
+                    result.name = in.nextString();
+                } else {
+                    in.skipValue();
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void write(JsonWriter out, UserAssembla value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("login").value(value.login);
+            out.name("name").value(value.name);
+            out.endObject();
+        }
+    }
+
+    private static class SpaceAdapter extends TypeAdapter<SpaceAssembla> {
+
+        @Override
+        public SpaceAssembla read(JsonReader in) throws IOException {
+            if (!beginObject(in)) {
+                return null;
+            }
+            SpaceAssembla result = new SpaceAssembla();
+            for (String name = nextField(in); name != null; name = nextField(in)) {
+                if (name.equals("id")) {
+                    result.id = in.nextString();
+                } else if (name.equals("name")) {
+                    result.name = in.nextString();
+                } else if (name.equals("team_permissions")) {
+                    result.team_permissions = in.nextInt();
+                } else if (name.equals("watcher_permissions")) {
+                    result.watcher_permissions = in.nextInt();
+                } else {
+                    in.skipValue();
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void write(JsonWriter out, SpaceAssembla value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("name").value(value.name);
+            out.name("team_permissions").value(value.team_permissions);
+            out.name("watcher_permissions").value(value.watcher_permissions);
+            out.endObject();
+        }
+    }
+
+    private static class UserRoleAdapter extends TypeAdapter<UserRoleAssembla> {
+
+        @Override
+        public UserRoleAssembla read(JsonReader in) throws IOException {
+            if (!beginObject(in)) {
+                return null;
+            }
+            UserRoleAssembla result = new UserRoleAssembla();
+            for (String name = nextField(in); name != null; name = nextField(in)) {
+                if (name.equals("user_id")) {
+                    result.user_id = in.nextString();
+                } else if (name.equals("role")) {
+                    result.role = internRole(in.nextString());
+                } else {
+                    in.skipValue();
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void write(JsonWriter out, UserRoleAssembla value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("user_id").value(value.user_id);
+            out.name("role").value(value.role);
+            out.endObject();
+        }
+    }
+}
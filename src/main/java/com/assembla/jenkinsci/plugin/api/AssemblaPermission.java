@@ -14,22 +14,79 @@ public class AssemblaPermission {
     static public final int VIEW = 1;
     static public final int EDIT = 2;
     static public final int ALL = 3;
+    // role of user in space, ROLE_NONE if user is not space member or role is unknown
+    static public final int ROLE_NONE = 0;
+    static public final int ROLE_OWNER = 1;
+    static public final int ROLE_MEMBER = 2;
+    static public final int ROLE_WATCHER = 3;
+    static private final int ROLE_SHIFT = 2;
 
     static public int getPermission(String role, SpaceAssembla space) {
         int result = NONE;
         if (role != null && space != null) {
+            result = getPermission(role, toPermission(space.team_permissions), toPermission(space.watcher_permissions));
+        }
+
+        return result;
+    }
+
+    /**
+     * Same as getPermission(role, space) but using already known space permissions.
+     */
+    static public int getPermission(String role, int teamPermissions, int watcherPermissions) {
+        int result = NONE;
+        if (role != null) {
             if (role.equalsIgnoreCase(ApiService.ASSEMBLA_ROLE_OWNER)) {
                 // owner always has ALL permission
                 result = ALL;
             } else if (role.equalsIgnoreCase(ApiService.ASSEMBLA_ROLE_MEMBER)) {
 
-                result = space.team_permissions;
+                result = teamPermissions;
             } else if (role.equalsIgnoreCase(ApiService.ASSEMBLA_ROLE_WATCHER)) {
-                // owner always has ALL permission
-                result = space.watcher_permissions;
+                result = watcherPermissions;
             }
         }
 
         return result;
     }
+
+    /**
+     * @return role constant (e.g. ROLE_OWNER) of Assembla role name
+     */
+    static public int toRole(String role) {
+        int result = ROLE_NONE;
+        if (role != null) {
+            if (role.equalsIgnoreCase(ApiService.ASSEMBLA_ROLE_OWNER)) {
+                result = ROLE_OWNER;
+            } else if (role.equalsIgnoreCase(ApiService.ASSEMBLA_ROLE_MEMBER)) {
+                result = ROLE_MEMBER;
+            } else if (role.equalsIgnoreCase(ApiService.ASSEMBLA_ROLE_WATCHER)) {
+                result = ROLE_WATCHER;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return permission and role packed into one small int, so both can be
+     * kept per user without extra objects
+     */
+    static public int toAccess(int permission, int role) {
+        return permission | (role << ROLE_SHIFT);
+    }
+
+    static public int getPermission(int access) {
+        return access & ((1 << ROLE_SHIFT) - 1);
+    }
+
+    static public int getRole(int access) {
+        return access >>> ROLE_SHIFT;
+    }
+
+    /**
+     * @return permission value or NONE if it is not set.
+     */
+    static public int toPermission(Integer permission) {
+        return (permission != null) ? permission : NONE;
+    }
 }
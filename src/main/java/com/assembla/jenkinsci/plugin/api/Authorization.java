@@ -0,0 +1,39 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import org.apache.http.HttpRequest;
+
+/**
+ * Credentials sent with Assembla API request: OAuth access token (of user
+ * session or script) or API key and secret of script.
+ *
+ * @author Damir Milovic
+ */
+public abstract class Authorization {
+
+    private static final String HEADER_API_KEY = "X-Api-Key";
+    private static final String HEADER_API_SECRET = "X-Api-Secret";
+
+    public static Authorization bearer(final String accessToken) {
+        return new Authorization() {
+
+            void apply(HttpRequest request) {
+                request.addHeader("Authorization", "Bearer " + accessToken);
+            }
+        };
+    }
+
+    public static Authorization apiKey(final String apiKey, final String apiSecret) {
+        return new Authorization() {
+
+            void apply(HttpRequest request) {
+                request.addHeader(HEADER_API_KEY, apiKey);
+                request.addHeader(HEADER_API_SECRET, apiSecret);
+            }
+        };
+    }
+
+    /**
+     * Adds credentials to request headers.
+     */
+    abstract void apply(HttpRequest request);
+}
@@ -0,0 +1,49 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit and miss counters of one cache. Stale hit is expired entry served
+ * while it is refreshed (or while Assembla API is not available).
+ *
+ * @author Damir Milovic
+ */
+public class CacheStatistics {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    public void staleHit() {
+        staleHits.incrementAndGet();
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return ratio of lookups served from cache (fresh or stale), 0 if there were none
+     */
+    public double getHitRatio() {
+        long served = hits.get() + staleHits.get();
+        long total = served + misses.get();
+        return (total > 0) ? (double) served / total : 0;
+    }
+}
@@ -0,0 +1,115 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling Assembla API while it is failing. Circuit opens after
+ * failureThreshold consecutive failures and requests are refused for
+ * openDuration. Then single probe request is let through (half open), circuit
+ * closes if it succeeds and opens again if it fails.
+ *
+ * @author Damir Milovic
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State {
+
+        CLOSED, OPEN, HALF_OPEN
+    }
+    private final String name;
+    private final int failureThreshold;
+    private final long openDuration;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // guarded by this
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * @param failureThreshold number of consecutive failures opening circuit
+     * @param openDuration time in ms for which requests are refused
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openDuration) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @return true if request can be sent, false if it has to fail fast.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+            state = State.HALF_OPEN;
+            LOGGER.log(Level.INFO, "{0} circuit half open, probing ...", name);
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.log(Level.INFO, "{0} circuit closed", name);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        probing = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            LOGGER.log(Level.WARNING, "{0} circuit open after {1} failures, requests refused for {2} ms",
+                    new Object[]{name, failures, openDuration});
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Closes circuit and forgets failures, e.g. between tests.
+     */
+    public synchronized void reset() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    /**
+     * Request allowed by allowRequest() was not sent, other request can probe.
+     */
+    public synchronized void onNotSent() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return false if requests are refused (or just probed).
+     */
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * @return number of requests refused while circuit was open.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
@@ -0,0 +1,15 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending request to Assembla API while it is failing.
+ *
+ * @author Damir Milovic
+ */
+public class CircuitOpenException extends IOException {
+
+    public CircuitOpenException(String url) {
+        super("Assembla API is not available, request refused: " + url);
+    }
+}
@@ -0,0 +1,90 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Decoded responses of conditional GET requests with their validators (ETag,
+ * Last-Modified), by request url. Cached values are shared by all callers, so
+ * they must not be modified.
+ *
+ * @author Damir Milovic
+ */
+class ConditionalGetCache {
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param maxEntries cache is cleared when it grows above this size
+     */
+    ConditionalGetCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    static class Entry {
+
+        private final String etag;
+        private final String lastModified;
+        private final Object value;
+
+        Entry(String etag, String lastModified, Object value) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+
+        /**
+         * Makes request conditional, Assembla API responds 304 Not Modified if
+         * cached value is still valid.
+         */
+        void addValidators(HttpUriRequest request) {
+            if (etag != null) {
+                request.addHeader("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.addHeader("If-Modified-Since", lastModified);
+            }
+        }
+
+        Object getValue() {
+            return value;
+        }
+    }
+
+    Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Caches value decoded from response, if response has validators.
+     */
+    void put(String url, HttpResponse response, Object value) {
+        String etag = getHeader(response, "ETag");
+        String lastModified = getHeader(response, "Last-Modified");
+        if (etag == null && lastModified == null) {
+            entries.remove(url);
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            entries.clear();
+        }
+        entries.put(url, new Entry(etag, lastModified, value));
+    }
+
+    void remove(String url) {
+        entries.remove(url);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private static String getHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return (header != null) ? header.getValue() : null;
+    }
+}
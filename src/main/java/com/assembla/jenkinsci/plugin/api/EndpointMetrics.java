@@ -0,0 +1,73 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP request count, error count (network errors and 4xx/5xx responses) and
+ * latency (until response headers are received) of one Assembla API endpoint.
+ *
+ * @author Damir Milovic
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+
+    private final String name;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public EndpointMetrics(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos, boolean error) {
+        calls.incrementAndGet();
+        if (error) {
+            errors.incrementAndGet();
+        }
+        latency.record(nanos);
+    }
+
+    /**
+     * Counts 304 Not Modified response of conditional request (cached value was used).
+     */
+    public void notModified() {
+        notModified.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    public double getMeanMillis() {
+        return latency.getMeanMillis();
+    }
+
+    public double getP50Millis() {
+        return latency.getPercentileMillis(0.5);
+    }
+
+    public double getP99Millis() {
+        return latency.getPercentileMillis(0.99);
+    }
+
+    public double getMaxMillis() {
+        return latency.getMaxMillis();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,25 @@
+package com.assembla.jenkinsci.plugin.api;
+
+/**
+ * JMX view of EndpointMetrics.
+ *
+ * @author Damir Milovic
+ */
+public interface EndpointMetricsMBean {
+
+    String getName();
+
+    long getCalls();
+
+    long getErrors();
+
+    long getNotModified();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
@@ -0,0 +1,83 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations with fixed buckets from 10 us to 60 sec.
+ * Percentiles are estimated by upper bound of bucket.
+ *
+ * @author Damir Milovic
+ */
+public class LatencyHistogram {
+
+    // upper bounds of buckets in microseconds, last bucket is unbounded
+    private static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+        100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000, 30000000, 60000000};
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BOUNDS.length && micros > BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return (n > 0) ? totalNanos.get() / 1e6 / n : 0;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @param percentile e.g. 0.99
+     * @return upper bound of bucket containing percentile, max duration for last bucket
+     */
+    public double getPercentileMillis(double percentile) {
+        long n = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            n += buckets.get(i);
+        }
+        long rank = (long) Math.ceil(n * percentile);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return BOUNDS[i] / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * @return counts by bucket upper bound in ms ("+Inf" for last bucket)
+     */
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < BOUNDS.length; i++) {
+            result.put(String.valueOf(BOUNDS[i] / 1000.0), buckets.get(i));
+        }
+        result.put("+Inf", buckets.get(BOUNDS.length));
+        return result;
+    }
+}
@@ -0,0 +1,16 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown when Assembla API keeps responding 429 Too Many Requests after
+ * request was retried.
+ *
+ * @author Damir Milovic
+ */
+public class RateLimitedException extends IOException {
+
+    public RateLimitedException(String url) {
+        super("Assembla API rate limit exceeded, request refused: " + url);
+    }
+}
@@ -0,0 +1,157 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Token bucket limiting rate of requests to Assembla API. Bucket holds at most
+ * burst permits and is refilled by rate permits per second. Waiting requests
+ * are served by priority, so login is not delayed by token refreshes and space
+ * reloads. When Assembla API responds with 429 Too Many Requests all requests
+ * wait for Retry-After time (or exponential backoff if it is not sent).
+ *
+ * @author Damir Milovic
+ */
+public class RateLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(RateLimiter.class.getName());
+    private static final long INITIAL_BACKOFF = 1000L; // 1 sec
+    private static final long MAX_BACKOFF = 60000L; // 1 min
+
+    /**
+     * Priority classes of requests, highest first.
+     */
+    public enum Priority {
+
+        LOGIN, TOKEN_REFRESH, RELOAD
+    }
+    private final double rate; // permits per ms, 0 if rate is not limited
+    private final double burst;
+    private final long maxWait;
+    // guarded by this
+    private double permits;
+    private long lastRefill;
+    private long blockedUntil;
+    private int rateLimitedCount; // consecutive 429 responses
+    private final int[] waiting = new int[Priority.values().length];
+
+    /**
+     * @param rate permits per second, 0 for unlimited rate (Retry-After is still respected)
+     * @param burst maximum number of requests sent at once
+     * @param maxWait maximum time in ms request waits for permit
+     */
+    public RateLimiter(double rate, int burst, long maxWait) {
+        this.rate = Math.max(0, rate) / 1000;
+        this.burst = Math.max(1, burst);
+        this.maxWait = maxWait;
+        this.permits = this.burst;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Waits until request can be sent.
+     *
+     * @throws IOException if permit was not granted in maxWait time
+     * @throws InterruptedIOException if waiting thread was interrupted (e.g. API call was cancelled)
+     */
+    public synchronized void acquire(Priority priority) throws IOException {
+        long deadline = System.currentTimeMillis() + maxWait;
+        waiting[priority.ordinal()]++;
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                refill(now);
+                long wait = Math.max(0, blockedUntil - now);
+                if (wait == 0 && rate > 0 && permits < 1) {
+                    wait = (long) Math.ceil((1 - permits) / rate);
+                }
+                if (wait == 0 && !isHigherPriorityWaiting(priority)) {
+                    if (rate > 0) {
+                        permits--;
+                    }
+                    return;
+                }
+                if (now >= deadline) {
+                    throw new IOException("Assembla API rate limit, " + priority + " request waited " + maxWait + " ms");
+                }
+                // woken up earlier when higher priority request gets its permit
+                wait(Math.max(1, Math.min(wait > 0 ? wait : Long.MAX_VALUE, deadline - now)));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Assembla API rate limit");
+        } finally {
+            waiting[priority.ordinal()]--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Blocks all requests after 429 Too Many Requests response.
+     *
+     * @param retryAfter time in ms requested by Assembla API, or negative if
+     * unknown (exponential backoff is used)
+     */
+    public synchronized void onRateLimited(long retryAfter) {
+        rateLimitedCount++;
+        long backoff = retryAfter;
+        if (backoff < 0) {
+            backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(rateLimitedCount - 1, 16));
+        }
+        LOGGER.log(Level.WARNING, "Assembla API rate limit exceeded, requests are delayed {0} ms", backoff);
+        blockedUntil = Math.max(blockedUntil, System.currentTimeMillis() + backoff);
+        permits = 0;
+    }
+
+    public synchronized void onSuccess() {
+        rateLimitedCount = 0;
+    }
+
+    /**
+     * Refills bucket and unblocks requests blocked by 429 responses, e.g.
+     * between tests.
+     */
+    public synchronized void reset() {
+        permits = burst;
+        lastRefill = System.currentTimeMillis();
+        blockedUntil = 0;
+        rateLimitedCount = 0;
+        notifyAll();
+    }
+
+    /**
+     * @return number of requests waiting for permit.
+     */
+    public synchronized int getQueueDepth() {
+        int result = 0;
+        for (int count : waiting) {
+            result += count;
+        }
+        return result;
+    }
+
+    /**
+     * @return number of requests of given priority waiting for permit.
+     */
+    public synchronized int getQueueDepth(Priority priority) {
+        return waiting[priority.ordinal()];
+    }
+
+    private boolean isHigherPriorityWaiting(Priority priority) {
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (waiting[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void refill(long now) {
+        if (rate > 0 && now > lastRefill) {
+            permits = Math.min(burst, permits + (now - lastRefill) * rate);
+        }
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,61 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Credentials of script or CLI request (Assembla API key and secret, or access
+ * token) used for API calls done on behalf of the script, e.g. loading spaces
+ * to resolve its permissions. Unlike tokens of logged in users they can not be
+ * refreshed, call rejected by Assembla API is not retried.
+ *
+ * @author Damir Milovic
+ */
+public class ScriptCredentials extends AccessTokenManager {
+
+    private static final Logger LOGGER = Logger.getLogger(ScriptCredentials.class.getName());
+    private final String accessToken;
+    private final Authorization authorization;
+
+    private ScriptCredentials(String accessToken, Authorization authorization) {
+        this.accessToken = accessToken;
+        this.authorization = authorization;
+    }
+
+    public static ScriptCredentials forApiKey(String apiKey, String apiSecret) {
+        return new ScriptCredentials(null, Authorization.apiKey(apiKey, apiSecret));
+    }
+
+    public static ScriptCredentials forAccessToken(String accessToken) {
+        return new ScriptCredentials(accessToken, Authorization.bearer(accessToken));
+    }
+
+    /**
+     * @return access token, null if script authenticates by API key and secret
+     */
+    @Override
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * Script credentials are never refreshed.
+     */
+    @Override
+    public void refreshIfExpiring() {
+    }
+
+    /**
+     * @return API call result
+     * @throws AccessDeniedException if credentials are rejected
+     */
+    @Override
+    public <T> T execute(ApiCall<T> apiCall) {
+        try {
+            return apiCall.call(authorization);
+        } catch (UnauthorizedException ex) {
+            LOGGER.log(Level.FINE, "execute() - script credentials rejected");
+            throw new AccessDeniedException(ex);
+        }
+    }
+}
@@ -11,8 +11,5 @@ public class TokenAssembla {
     public int expires_in;
     public String access_token;
     public String refresh_token;
-    
-    // Preserve Client ID and secret (needed for refresh token API)
-    public transient String clientId;
-    public transient String clientSecret;
+    // Client ID and secret needed for refresh token API are configured by ApiService.setClient()
 }
@@ -0,0 +1,14 @@
+package com.assembla.jenkinsci.plugin.api;
+
+/**
+ * Thrown by ApiService when Assembla API responds with 401 Unauthorized,
+ * usually because access token is expired.
+ *
+ * @author Damir Milovic
+ */
+public class UnauthorizedException extends RuntimeException {
+
+    public UnauthorizedException(String url) {
+        super("Unauthorized Assembla API call: " + url);
+    }
+}
@@ -0,0 +1,24 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown when Assembla API responds with status other than success or 304 Not
+ * Modified (e.g. 403 Forbidden or 500 Internal Server Error), so error
+ * content is never decoded as requested entity.
+ *
+ * @author Damir Milovic
+ */
+public class UnexpectedResponseException extends IOException {
+
+    private final int statusCode;
+
+    public UnexpectedResponseException(String url, int statusCode) {
+        super("Assembla API responded " + statusCode + ": " + url);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
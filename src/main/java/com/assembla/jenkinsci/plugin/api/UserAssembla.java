@@ -13,35 +13,8 @@ public class UserAssembla implements UserDetails {
     public String id;
     public String login;
     public String name;
-    
-    // Preserve required parameters populated by ApiService during session -----
-    private transient String spaceId;
-    private transient String role; // set by user roles
-    private transient int assembla_permission = AssemblaPermission.NONE; // defualt
-
-    public int getAssembla_permission() {
-        return assembla_permission;
-    }
-
-    public void setAssembla_permission(int assembla_permission) {
-        this.assembla_permission = assembla_permission;
-    }
-
-    public String getSpaceId() {
-        return spaceId;
-    }
-
-    public void setSpaceId(String spaceId) {
-        this.spaceId = spaceId;
-    }
-
-    public String getRole() {
-        return role;
-    }
-
-    public void setRole(String role) {
-        this.role = role;
-    }
+    // Users are shared by all sessions (UserDirectory), space permissions and
+    // roles of user are kept in shared SpaceSnapshot, not here.
 
     // UserDetails implementation ----------------------------------------------
     
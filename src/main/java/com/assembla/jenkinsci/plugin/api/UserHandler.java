@@ -0,0 +1,14 @@
+package com.assembla.jenkinsci.plugin.api;
+
+/**
+ * Receives space users while Assembla API response is being read.
+ *
+ * @author Damir Milovic
+ */
+public interface UserHandler {
+
+    /**
+     * @param user space user with id, login and name set
+     */
+    void user(UserAssembla user);
+}
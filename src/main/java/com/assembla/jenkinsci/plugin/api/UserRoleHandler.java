@@ -0,0 +1,15 @@
+package com.assembla.jenkinsci.plugin.api;
+
+/**
+ * Receives user roles of space while Assembla API response is being read.
+ *
+ * @author Damir Milovic
+ */
+public interface UserRoleHandler {
+
+    /**
+     * @param userId Assembla user id
+     * @param role user role in space, may be null
+     */
+    void userRole(String userId, String role);
+}
@@ -0,0 +1,138 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.ApiFixtures;
+import com.assembla.jenkinsci.plugin.api.ApiFuture;
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.AssemblaStubServer;
+import hudson.model.Item;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Damir Milovic
+ */
+public class AssemblaSecurityRealmTest {
+
+    // threads of ApiService asynchronous calls
+    private static final int API_THREADS = Integer.getInteger(ApiService.class.getName() + ".asyncThreads", 8);
+    private static AssemblaStubServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new AssemblaStubServer().start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+        ApiService.setApiUri(null);
+    }
+
+    @Before
+    public void setUp() {
+        ApiService.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.releaseRequests();
+        // user directory refresh scheduled by login must not outlive stub server
+        UserDirectory.awaitScheduledRefreshes();
+    }
+
+    private static AssemblaSecurityRealm createRealm() {
+        return new AssemblaSecurityRealm(server.getUri(), "client", "secret", ApiFixtures.SPACE_ID);
+    }
+
+    @Test
+    public void loginLoadsUserAndSpace() {
+        AssemblaAuthenticationToken auth = createRealm().login("c1");
+        assertNotNull(auth);
+        assertEquals(ApiFixtures.login(1), auth.getName());
+        assertNotNull(auth.getSnapshot());
+        assertEquals(ApiFixtures.role(1), auth.getSnapshot().getRole(ApiFixtures.userId(1)));
+    }
+
+    @Test
+    public void loginFailsWithoutErrorWhileApiCallsAreRejected() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Semaphore running = new Semaphore(0);
+        try {
+            // occupy all API threads and fill their queue
+            fillApiExecutor(release, running);
+            // threads finishing calls of previous logins take queued calls, queue is filled again then
+            assertTrue(running.tryAcquire(API_THREADS, 10, TimeUnit.SECONDS));
+            fillApiExecutor(release, running);
+            assertNull(createRealm().login("c2"));
+        } finally {
+            release.countDown();
+        }
+        assertNotNull(createRealm().login("c2"));
+    }
+
+    @Test
+    public void scriptIsAuthorizedWithItsOwnApiKey() {
+        // no user is logged in, so there is no session access token to load space with
+        AssemblaSecurityRealm realm = createRealm();
+        AssemblaACL acl = new AssemblaACL("", PermissionMatrix.createDefault(), realm);
+        AssemblaApiKeyAuthenticationToken script = realm.getApiKeyAuthenticator().authenticate("k3", "s3");
+        assertEquals(ApiFixtures.login(3), script.getName());
+        assertTrue(acl.hasPermission(script, Item.READ));
+        assertEquals(ApiFixtures.role(3), realm.getSnapshotCache().getIfFresh(ApiFixtures.SPACE_ID).getRole(ApiFixtures.userId(3)));
+    }
+
+    @Test
+    public void reconfigurationDoesNotAbortLoginInProgress() throws Exception {
+        server.holdRequests(AssemblaStubServer.USER);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AssemblaSecurityRealm realm = createRealm();
+            Future<AssemblaAuthenticationToken> login = executor.submit(new Callable<AssemblaAuthenticationToken>() {
+
+                public AssemblaAuthenticationToken call() {
+                    return realm.login("c4");
+                }
+            });
+            // configuration saved while login waits for Assembla API
+            assertTrue(server.awaitHeldRequests(1));
+            createRealm();
+            server.releaseRequests();
+            assertNotNull(login.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits API calls waiting for latch until one is rejected.
+     *
+     * @param running released by every call when it starts
+     */
+    private static void fillApiExecutor(final CountDownLatch release, final Semaphore running) {
+        for (int i = 0; i < 1000; i++) {
+            ApiFuture<Void> future = ApiService.submit(new Callable<Void>() {
+
+                public Void call() throws InterruptedException {
+                    running.release();
+                    release.await();
+                    return null;
+                }
+            }, 60000);
+            if (future.isDone()) {
+                return; // rejected
+            }
+        }
+        fail("API calls are not rejected");
+    }
+}
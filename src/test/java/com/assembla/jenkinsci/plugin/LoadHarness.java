@@ -0,0 +1,116 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.ApiFixtures;
+import com.assembla.jenkinsci.plugin.api.AssemblaStubServer;
+import com.assembla.jenkinsci.plugin.api.LatencyHistogram;
+import hudson.model.Item;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Load test of logins and permission checks against AssemblaStubServer.
+ * Worker threads log in random users (authorization code exchange, user and
+ * realm space load) or check permission of already logged in user, and
+ * throughput and latency percentiles of both are reported. Configured by
+ * system properties (defaults in brackets): threads (16), duration in s (30),
+ * users (1000), members of space (10000), latency of Assembla API in ms (20),
+ * errorRate and rateLimitedRate (0) and loginRatio (0.05), e.g.
+ *
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) -Dthreads=32 com.assembla.jenkinsci.plugin.LoadHarness
+ *
+ * @author Damir Milovic
+ */
+public class LoadHarness {
+
+    private final int threads = Integer.getInteger("threads", 16);
+    private final long duration = Long.getLong("duration", 30) * 1000;
+    private final int users = Integer.getInteger("users", 1000);
+    private final double loginRatio = Double.parseDouble(System.getProperty("loginRatio", "0.05"));
+    private final AssemblaStubServer server;
+    private final AssemblaSecurityRealm realm;
+    private final AssemblaACL acl;
+    private final AtomicReferenceArray<AssemblaAuthenticationToken> sessions;
+    private final LatencyHistogram logins = new LatencyHistogram();
+    private final LatencyHistogram permissionChecks = new LatencyHistogram();
+    private final AtomicLong failedLogins = new AtomicLong();
+
+    public LoadHarness(AssemblaStubServer server) {
+        this.server = server;
+        realm = new AssemblaSecurityRealm(server.getUri(), "client", "secret", ApiFixtures.SPACE_ID);
+        acl = new AssemblaACL("", PermissionMatrix.createDefault(), realm);
+        sessions = new AtomicReferenceArray<AssemblaAuthenticationToken>(users);
+    }
+
+    public static void main(String[] args) throws Exception {
+        AssemblaStubServer server = new AssemblaStubServer();
+        server.setMembers(Integer.getInteger("members", 10000));
+        server.setLatency(Long.getLong("latency", 20));
+        server.setErrorRate(Double.parseDouble(System.getProperty("errorRate", "0")));
+        server.setRateLimitedRate(Double.parseDouble(System.getProperty("rateLimitedRate", "0")));
+        server.start();
+        try {
+            new LoadHarness(server).run();
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    public void run() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + duration;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        work(deadline);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + i).start();
+        }
+        done.await();
+        report();
+    }
+
+    private void work(long deadline) {
+        Random random = new Random();
+        while (System.currentTimeMillis() < deadline) {
+            int user = random.nextInt(users);
+            AssemblaAuthenticationToken session = sessions.get(user);
+            if (session == null || random.nextDouble() < loginRatio) {
+                long start = System.nanoTime();
+                session = realm.login("c" + user);
+                logins.record(System.nanoTime() - start);
+                if (session == null) {
+                    failedLogins.incrementAndGet();
+                    continue;
+                }
+                sessions.set(user, session);
+            }
+            long start = System.nanoTime();
+            acl.hasPermission(session, Item.READ);
+            permissionChecks.record(System.nanoTime() - start);
+        }
+    }
+
+    private void report() {
+        double seconds = duration / 1000.0;
+        System.out.printf("%d threads, %d s, %d users%n", threads, duration / 1000, users);
+        report("logins", logins, seconds);
+        report("permission checks", permissionChecks, seconds);
+        System.out.printf("failed logins: %d%n", failedLogins.get());
+        System.out.printf("Assembla API requests: %s%n", server.getRequestCounts());
+    }
+
+    private static void report(String name, LatencyHistogram histogram, double seconds) {
+        System.out.printf("%s: %d (%.1f/s), mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", name,
+                histogram.getCount(), histogram.getCount() / seconds, histogram.getMeanMillis(),
+                histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.99), histogram.getMaxMillis());
+    }
+}
@@ -0,0 +1,48 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AssemblaPermission;
+import hudson.model.Item;
+import hudson.security.Permission;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Damir Milovic
+ */
+public class PermissionMatrixTest {
+
+    @Test
+    public void roleGrantsAndDeniesPermissionsOnTopOfLevel() {
+        PermissionMatrix matrix = new PermissionMatrix(null, null, null, null,
+                null, "hudson.model.Item.Build", "-hudson.model.Item.Read");
+        // member with VIEW level may build
+        assertTrue(matrix.isGranted(AssemblaPermission.VIEW, AssemblaPermission.ROLE_MEMBER, Item.BUILD));
+        assertFalse(matrix.isGranted(AssemblaPermission.VIEW, AssemblaPermission.ROLE_NONE, Item.BUILD));
+        // watcher is denied permission its level grants
+        assertFalse(matrix.isGranted(AssemblaPermission.EDIT, AssemblaPermission.ROLE_WATCHER, Item.READ));
+        assertTrue(matrix.isGranted(AssemblaPermission.EDIT, AssemblaPermission.ROLE_MEMBER, Item.READ));
+        // owner role does not change ALL level
+        assertTrue(matrix.isGranted(AssemblaPermission.ALL, AssemblaPermission.ROLE_OWNER, Item.DELETE));
+    }
+
+    @Test
+    public void permissionRegisteredLaterIsCompiled() {
+        PermissionMatrix matrix = new PermissionMatrix(null, null, null, null, null, "hudson.model.Item.Late", null);
+        Permission late = new Permission(Item.PERMISSIONS, "Late", null, Item.CONFIGURE);
+        assertTrue(matrix.isGranted(AssemblaPermission.NONE, AssemblaPermission.ROLE_MEMBER, late));
+        // EDIT grants all permissions but Administer
+        assertTrue(matrix.isGranted(AssemblaPermission.EDIT, AssemblaPermission.ROLE_NONE, late));
+        assertFalse(matrix.isGranted(AssemblaPermission.VIEW, AssemblaPermission.ROLE_WATCHER, late));
+    }
+
+    @Test
+    public void accessPacksPermissionAndRole() {
+        SpaceSnapshot snapshot = new SpaceSnapshot("space", AssemblaPermission.EDIT, AssemblaPermission.VIEW,
+                Collections.singletonMap("u1", "watcher"), 0);
+        int access = snapshot.getAccess("u1");
+        assertEquals(AssemblaPermission.VIEW, AssemblaPermission.getPermission(access));
+        assertEquals(AssemblaPermission.ROLE_WATCHER, AssemblaPermission.getRole(access));
+        assertEquals(AssemblaPermission.NONE, snapshot.getAccess("u2"));
+    }
+}
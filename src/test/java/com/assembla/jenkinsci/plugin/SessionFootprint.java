@@ -0,0 +1,165 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
+import com.assembla.jenkinsci.plugin.api.ApiFixtures;
+import com.assembla.jenkinsci.plugin.api.TokenAssembla;
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.UUID;
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.providers.AbstractAuthenticationToken;
+
+/**
+ * Retained heap and serialized size per session: AssemblaAuthenticationToken
+ * against session state kept before it was made compact (own user with space
+ * id, role and permission, token response with client id and secret, and
+ * token manager). Retained heap is difference of used heap after garbage
+ * collection with and without sessions, e.g.
+ *
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) com.assembla.jenkinsci.plugin.SessionFootprint 100000
+ *
+ * @author Damir Milovic
+ */
+public class SessionFootprint {
+
+    private static final String CLIENT_ID = "0123456789abcdef0123";
+    private static final String CLIENT_SECRET = "0123456789abcdef0123456789abcdef";
+    // all sessions share one snapshot of realm space
+    private static final SpaceSnapshot SHARED_SNAPSHOT = new SpaceSnapshot(ApiFixtures.SPACE_ID, 2, 1,
+            new HashMap<String, String>(), System.currentTimeMillis());
+
+    public static void main(String[] args) throws IOException {
+        int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        measure("before", sessions, true);
+        measure("after", sessions, false);
+    }
+
+    private static void measure(String name, int count, boolean legacy) throws IOException {
+        Object[] sessions = new Object[count];
+        long before = usedHeap();
+        for (int i = 0; i < count; i++) {
+            sessions[i] = legacy ? createLegacySession(i) : createSession(i);
+        }
+        long after = usedHeap();
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(sessions[count / 2]);
+        out.close();
+        System.out.printf("%s: %d sessions, %d bytes retained per session, %d bytes serialized session%n",
+                name, count, (after - before) / count, serialized.size());
+        sessions[0] = null; // keep sessions reachable until measured
+    }
+
+    private static AssemblaAuthenticationToken createSession(int index) {
+        UserAssembla user = createUser(index);
+        AssemblaAuthenticationToken token = new AssemblaAuthenticationToken(user, new AccessTokenManager(createTokens()));
+        token.setSnapshot(SHARED_SNAPSHOT);
+        return token;
+    }
+
+    private static LegacyToken createLegacySession(int index) {
+        LegacyUser user = new LegacyUser();
+        user.id = ApiFixtures.userId(index) + "-" + UUID.randomUUID();
+        user.login = ApiFixtures.login(index) + index;
+        user.name = "User " + index;
+        user.spaceId = ApiFixtures.SPACE_ID;
+        user.role = ApiFixtures.role(index);
+        LegacyTokens tokens = new LegacyTokens();
+        TokenAssembla response = createTokens();
+        tokens.token_type = response.token_type;
+        tokens.expires_in = response.expires_in;
+        tokens.access_token = response.access_token;
+        tokens.refresh_token = response.refresh_token;
+        // every session referenced client credentials of realm
+        tokens.clientId = CLIENT_ID;
+        tokens.clientSecret = CLIENT_SECRET;
+        LegacyTokenManager tokenManager = new LegacyTokenManager();
+        tokenManager.tokensAssembla = tokens;
+        tokenManager.expirationTime = System.currentTimeMillis() + 3600000;
+        return new LegacyToken(user, tokens, tokenManager);
+    }
+
+    private static UserAssembla createUser(int index) {
+        UserAssembla user = new UserAssembla();
+        user.id = ApiFixtures.userId(index) + "-" + UUID.randomUUID();
+        user.login = ApiFixtures.login(index) + index;
+        user.name = "User " + index;
+        return user;
+    }
+
+    private static TokenAssembla createTokens() {
+        TokenAssembla tokens = new TokenAssembla();
+        tokens.token_type = "bearer";
+        tokens.expires_in = 3600;
+        tokens.access_token = UUID.randomUUID().toString().replace("-", "");
+        tokens.refresh_token = UUID.randomUUID().toString().replace("-", "");
+        return tokens;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Session token as it was: user, token response and token manager.
+     */
+    static class LegacyToken extends AbstractAuthenticationToken {
+
+        private final LegacyUser user;
+        private final LegacyTokens tokensAssembla;
+        private final LegacyTokenManager tokenManager;
+
+        LegacyToken(LegacyUser user, LegacyTokens tokensAssembla, LegacyTokenManager tokenManager) {
+            super(new GrantedAuthority[]{});
+            this.user = user;
+            this.tokensAssembla = tokensAssembla;
+            this.tokenManager = tokenManager;
+            setAuthenticated(true);
+        }
+
+        public Object getCredentials() {
+            return "";
+        }
+
+        public Object getPrincipal() {
+            return user.login;
+        }
+    }
+
+    static class LegacyUser implements Serializable {
+
+        String id;
+        String login;
+        String name;
+        transient String spaceId;
+        transient String role;
+        transient int assembla_permission;
+    }
+
+    static class LegacyTokens implements Serializable {
+
+        String token_type;
+        int expires_in;
+        String access_token;
+        String refresh_token;
+        transient String clientId;
+        transient String clientSecret;
+    }
+
+    static class LegacyTokenManager implements Serializable {
+
+        LegacyTokens tokensAssembla;
+        long expirationTime;
+    }
+}
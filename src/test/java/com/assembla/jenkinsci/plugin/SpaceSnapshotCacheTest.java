@@ -0,0 +1,217 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.AccessTokenManager;
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.AssemblaStubServer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static com.assembla.jenkinsci.plugin.api.ApiFixtures.tokenManager;
+import static org.junit.Assert.*;
+
+/**
+ * @author Damir Milovic
+ */
+public class SpaceSnapshotCacheTest {
+
+    private static final int THREADS = 32;
+    private static AssemblaStubServer server;
+    private SpaceSnapshotCache cache;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new AssemblaStubServer();
+        // one page of user roles
+        server.setMembers(50);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+        ApiService.setApiUri(null);
+    }
+
+    @Before
+    public void setUp() {
+        ApiService.setApiUri(server.getUri());
+        ApiService.reset();
+        server.resetRequestCounts();
+        cache = new SpaceSnapshotCache(null, new UnsharedStore());
+    }
+
+    @After
+    public void tearDown() {
+        server.releaseRequests();
+    }
+
+    /**
+     * Store which neither shares snapshots nor locks spaces, so only cache
+     * itself can coalesce concurrent reloads.
+     */
+    static class UnsharedStore implements SnapshotStore {
+
+        public SpaceSnapshot get(String spaceId) {
+            return null;
+        }
+
+        public void put(SpaceSnapshot snapshot) {
+        }
+
+        public Lock lock(String spaceId, long timeout) {
+            return new Lock() {
+
+                public void release() {
+                }
+            };
+        }
+    }
+
+    @Test
+    public void concurrentLoadsShareOneReloadPerSpace() throws Exception {
+        final String[] spaces = {"space1", "space2"};
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(THREADS);
+        long avoidedRefreshes = AccessTokenManager.getAvoidedRefreshCount();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<SpaceSnapshot>> futures = new ArrayList<Future<SpaceSnapshot>>();
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                final String spaceId = spaces[i % spaces.length];
+                // every thread has its own session (access token)
+                final AccessTokenManager tokenManager = tokenManager(i);
+                futures.add(executor.submit(new Callable<SpaceSnapshot>() {
+
+                    public SpaceSnapshot call() throws Exception {
+                        start.await();
+                        started.countDown();
+                        return cache.load(spaceId, tokenManager);
+                    }
+                }));
+            }
+            // reloads wait for user roles until all threads are started
+            server.holdRequests(AssemblaStubServer.USER_ROLES);
+            start.countDown();
+            assertTrue(server.awaitHeldRequests(spaces.length));
+            started.await();
+            server.releaseRequests();
+            SpaceSnapshot[] loaded = new SpaceSnapshot[spaces.length];
+            for (int i = 0; i < THREADS; i++) {
+                SpaceSnapshot snapshot = futures.get(i).get();
+                assertNotNull(snapshot);
+                SpaceSnapshot first = loaded[i % spaces.length];
+                if (first == null) {
+                    loaded[i % spaces.length] = snapshot;
+                } else {
+                    assertSame("threads loading the same space share result", first, snapshot);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("one space request per space", spaces.length, server.getRequestCount(AssemblaStubServer.SPACE));
+        assertEquals("one user roles request per space", spaces.length, server.getRequestCount(AssemblaStubServer.USER_ROLES));
+        assertEquals("valid access token is not refreshed before reload", spaces.length,
+                AccessTokenManager.getAvoidedRefreshCount() - avoidedRefreshes);
+        assertEquals(0, server.getRequestCount(AssemblaStubServer.TOKEN));
+
+        // loaded snapshots are served from cache
+        assertNotNull(cache.load(spaces[0], tokenManager(0)));
+        assertEquals(spaces.length, server.getRequestCount(AssemblaStubServer.USER_ROLES));
+    }
+
+    @Test
+    public void failedReloadIsNotRetriedUntilBackoffPasses() throws Exception {
+        // fewer failures than circuit breaker threshold, so only backoff keeps requests away
+        server.setErrorRate(1.0);
+        try {
+            assertNull(cache.load("failing", tokenManager(0)));
+            int requests = server.getRequestCount(AssemblaStubServer.SPACE);
+            assertTrue(requests > 0);
+
+            assertNull(cache.load("failing", tokenManager(1)));
+            assertEquals("space is not reloaded while backing off", requests, server.getRequestCount(AssemblaStubServer.SPACE));
+        } finally {
+            server.setErrorRate(0);
+        }
+    }
+
+    @Test
+    public void reloadInProgressIsDiscardedByInvalidation() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        server.holdRequests(AssemblaStubServer.SPACE);
+        try {
+            Future<SpaceSnapshot> stale = executor.submit(new Callable<SpaceSnapshot>() {
+
+                public SpaceSnapshot call() {
+                    return cache.load("space3", tokenManager(0));
+                }
+            });
+            // invalidated while reload waits for Assembla API
+            assertTrue(server.awaitHeldRequests(1));
+            cache.invalidate("space3", tokenManager(1));
+            server.releaseRequests();
+            assertNotNull(stale.get());
+            assertFalse("reload started before invalidation is not cached", cache.isCurrent(stale.get()));
+
+            // forced refresh does not join reload started before invalidation
+            SpaceSnapshot snapshot = cache.load("space3", tokenManager(2));
+            assertNotSame(stale.get(), snapshot);
+            assertTrue(cache.isCurrent(snapshot));
+            assertEquals(2, server.getRequestCount(AssemblaStubServer.SPACE));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void prefetchLoadsSpacesInBackground() throws Exception {
+        server.holdRequests(AssemblaStubServer.SPACE);
+        cache.prefetch(Arrays.asList("space4", "space5"), tokenManager(0));
+        // prefetch returned while both reloads wait for Assembla API
+        assertTrue(server.awaitHeldRequests(2));
+        assertEquals(0, cache.size());
+        server.releaseRequests();
+
+        // checks of prefetched spaces join their reloads
+        assertNotNull(cache.load("space4", tokenManager(1)));
+        assertNotNull(cache.load("space5", tokenManager(2)));
+        assertEquals(2, server.getRequestCount(AssemblaStubServer.SPACE));
+    }
+
+    @Test
+    public void spaceErrorIsNotInstalledAsSpace() throws Exception {
+        server.setEndpointError(AssemblaStubServer.SPACE, 500);
+        try {
+            // user roles are loaded, but there are no previous permissions of space to combine them with
+            assertNull(cache.load("space6", tokenManager(0)));
+            assertEquals(1, server.getRequestCount(AssemblaStubServer.USER_ROLES));
+            assertFalse(cache.contains("space6"));
+        } finally {
+            server.setEndpointError(AssemblaStubServer.SPACE, 0);
+        }
+    }
+
+    @Test
+    public void accessDeniedToNonMemberDoesNotBackOffSpace() throws Exception {
+        server.setNonMembersDenied(true);
+        try {
+            // user 60 is not member of space (50 members)
+            assertNull(cache.load("space8", tokenManager(60)));
+            assertNotNull("member reloads space right away", cache.load("space8", tokenManager(1)));
+            assertEquals(2, server.getRequestCount(AssemblaStubServer.SPACE));
+        } finally {
+            server.setNonMembersDenied(false);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.assembla.jenkinsci.plugin;
+
+import com.assembla.jenkinsci.plugin.api.ApiFixtures;
+import com.assembla.jenkinsci.plugin.api.ApiService;
+import com.assembla.jenkinsci.plugin.api.AssemblaStubServer;
+import com.assembla.jenkinsci.plugin.api.UserAssembla;
+import java.io.File;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Damir Milovic
+ */
+public class UserDirectoryTest {
+
+    private static AssemblaStubServer server;
+    private File directory;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new AssemblaStubServer().start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+        ApiService.setApiUri(null);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ApiService.setApiUri(server.getUri());
+        ApiService.reset();
+        directory = File.createTempFile("users", "");
+        directory.delete();
+        server.setMembers(10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // refresh scheduled by first add() must not outlive stub server
+        UserDirectory.awaitScheduledRefreshes();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static UserAssembla user(int index) {
+        UserAssembla user = new UserAssembla();
+        user.id = ApiFixtures.userId(index);
+        user.login = ApiFixtures.login(index);
+        return user;
+    }
+
+    @Test
+    public void refreshDropsUsersWhoLeftSpace() {
+        UserDirectory users = new UserDirectory(ApiFixtures.SPACE_ID, directory);
+        // logged in user who is not space member
+        users.add(user(42), ApiFixtures.tokenManager(1));
+        assertTrue(users.refresh());
+        assertEquals(10, users.size());
+        assertNull(users.getByLogin(ApiFixtures.login(42)));
+
+        server.setMembers(5);
+        assertTrue(users.refresh());
+        assertEquals(5, users.size());
+        assertNotNull(users.getByLogin(ApiFixtures.login(4)));
+        assertNull(users.getByLogin(ApiFixtures.login(7)));
+    }
+
+    @Test
+    public void usersAreRestoredAfterRestart() {
+        UserDirectory users = new UserDirectory(ApiFixtures.SPACE_ID, directory);
+        users.add(user(1), ApiFixtures.tokenManager(1));
+        assertTrue(users.refresh());
+
+        // nobody has logged in since restart
+        UserDirectory restored = new UserDirectory(ApiFixtures.SPACE_ID, directory);
+        assertEquals(10, restored.size());
+        assertEquals(ApiFixtures.userId(3), restored.getByLogin(ApiFixtures.login(3)).id);
+        assertNull(restored.getTokenManager());
+    }
+
+    @Test
+    public void userRemovedDuringRefreshStaysRemoved() throws Exception {
+        UserDirectory users = new UserDirectory(ApiFixtures.SPACE_ID, directory);
+        users.add(user(1), ApiFixtures.tokenManager(1));
+        UserDirectory.awaitScheduledRefreshes();
+        assertNotNull(users.getByLogin(ApiFixtures.login(3)));
+
+        server.holdRequests(AssemblaStubServer.USERS);
+        try {
+            users.scheduleRefresh();
+            assertTrue(server.awaitHeldRequests(1));
+            // refresh has already read user, removal must survive its swap
+            assertNotNull(users.remove(ApiFixtures.login(3)));
+        } finally {
+            server.releaseRequests();
+        }
+        UserDirectory.awaitScheduledRefreshes();
+        assertNull(users.getByLogin(ApiFixtures.login(3)));
+        assertNotNull(users.getByLogin(ApiFixtures.login(4)));
+
+        // removed user is added again by next refresh
+        assertTrue(users.refresh());
+        assertNotNull(users.getByLogin(ApiFixtures.login(3)));
+    }
+
+    @Test
+    public void refreshScheduledDuringRefreshIsNotDropped() throws Exception {
+        UserDirectory users = new UserDirectory(ApiFixtures.SPACE_ID, directory);
+        users.add(user(1), ApiFixtures.tokenManager(1));
+        UserDirectory.awaitScheduledRefreshes();
+        server.resetRequestCounts();
+
+        server.holdRequests(AssemblaStubServer.USERS);
+        try {
+            users.scheduleRefresh();
+            assertTrue(server.awaitHeldRequests(1));
+            users.scheduleRefresh();
+            users.scheduleRefresh();
+        } finally {
+            server.releaseRequests();
+        }
+        UserDirectory.awaitScheduledRefreshes();
+        assertEquals(2, server.getRequestCount(AssemblaStubServer.USERS));
+    }
+}
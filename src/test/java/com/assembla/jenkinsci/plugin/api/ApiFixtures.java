@@ -0,0 +1,124 @@
+package com.assembla.jenkinsci.plugin.api;
+
+/**
+ * Generates Assembla API responses of realistic shape (all fields Assembla
+ * sends, not only fields read by plugin) for tests, stub server and
+ * benchmarks. User with index i has id "u" + i and login "user" + i; user 0
+ * is space owner, every third user is watcher and the rest are members.
+ *
+ * @author Damir Milovic
+ */
+public class ApiFixtures {
+
+    public static final String SPACE_ID = "space0";
+
+    public static String userId(int index) {
+        return "u" + index;
+    }
+
+    public static String login(int index) {
+        return "user" + index;
+    }
+
+    public static String role(int index) {
+        if (index == 0) {
+            return ApiService.ASSEMBLA_ROLE_OWNER;
+        }
+        return (index % 3 == 0) ? ApiService.ASSEMBLA_ROLE_WATCHER : ApiService.ASSEMBLA_ROLE_MEMBER;
+    }
+
+    /**
+     * @return user_roles.json of space with count members
+     */
+    public static String userRoles(int count) {
+        return userRoles(SPACE_ID, 0, count);
+    }
+
+    /**
+     * @return user_roles.json of users from (inclusive) to (exclusive)
+     */
+    public static String userRoles(String spaceId, int from, int to) {
+        StringBuilder json = new StringBuilder((to - from) * 256 + 2);
+        json.append('[');
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(1000000 + i)
+                    .append(",\"user_id\":\"").append(userId(i))
+                    .append("\",\"space_id\":\"").append(spaceId)
+                    .append("\",\"role\":\"").append(role(i))
+                    .append("\",\"status\":1,\"invited_time\":\"2012-11-08T11:40:51Z\",\"agreed_time\":\"2012-11-08T11:42:17Z\"")
+                    .append(",\"title\":null,\"invited_by_id\":\"").append(userId(0))
+                    .append("\",\"permission_type\":2}");
+        }
+        json.append(']');
+        return json.toString();
+    }
+
+    /**
+     * @return users.json of space with count members
+     */
+    public static String users(int count) {
+        return users(0, count);
+    }
+
+    /**
+     * @return users.json of users from (inclusive) to (exclusive)
+     */
+    public static String users(int from, int to) {
+        StringBuilder json = new StringBuilder((to - from) * 256 + 2);
+        json.append('[');
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"").append(userId(i))
+                    .append("\",\"login\":\"").append(login(i))
+                    .append("\",\"name\":\"User ").append(i)
+                    .append("\",\"picture\":\"https://www.assembla.com/v1/users/").append(userId(i)).append("/picture\"")
+                    .append(",\"email\":\"").append(login(i)).append("@example.com\"")
+                    .append(",\"organization\":null,\"phone\":null,\"im\":{\"type\":\"skype\",\"id\":\"").append(login(i))
+                    .append("\"},\"im2\":null}");
+        }
+        json.append(']');
+        return json.toString();
+    }
+
+    /**
+     * @return user.json of user with given index
+     */
+    public static String user(int index) {
+        return users(index, index + 1).replaceFirst("^\\[", "").replaceFirst("\\]$", "");
+    }
+
+    /**
+     * @return space.json, members can edit and watchers can view
+     */
+    public static String space(String spaceId) {
+        return "{\"id\":\"" + spaceId + "\",\"name\":\"Space " + spaceId + "\",\"wiki_name\":\"" + spaceId
+                + "\",\"description\":\"Load test space\",\"public_permissions\":0,\"team_permissions\":2"
+                + ",\"watcher_permissions\":1,\"is_volunteer\":false,\"is_commercial\":true,\"can_join\":false"
+                + ",\"can_apply\":false,\"restricted\":false,\"created_at\":\"2012-11-08T11:40:51Z\"}";
+    }
+
+    /**
+     * @return OAuth token response
+     */
+    public static String token(String accessToken, String refreshToken, int expiresIn) {
+        return "{\"access_token\":\"" + accessToken + "\",\"token_type\":\"bearer\",\"expires_in\":" + expiresIn
+                + ",\"refresh_token\":\"" + refreshToken + "\"}";
+    }
+
+    /**
+     * @return session access token manager of user with given index, valid
+     * for stub server (access token "a" + index, refresh token "r" + index)
+     */
+    public static AccessTokenManager tokenManager(int index) {
+        TokenAssembla token = new TokenAssembla();
+        token.access_token = "a" + index + "-0";
+        token.refresh_token = "r" + index;
+        token.expires_in = 3600;
+        return new AccessTokenManager(token);
+    }
+}
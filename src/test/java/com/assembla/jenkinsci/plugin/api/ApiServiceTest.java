@@ -0,0 +1,109 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Damir Milovic
+ */
+public class ApiServiceTest {
+
+    private static AssemblaStubServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new AssemblaStubServer().start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+        ApiService.setApiUri(null);
+    }
+
+    @Before
+    public void setUp() {
+        ApiService.setApiUri(server.getUri());
+        ApiService.reset();
+        server.resetRequestCounts();
+    }
+
+    @Test
+    public void rateLimitedRequestFailsAfterRetries() {
+        server.setRateLimitedRate(1.0);
+        try {
+            final AtomicInteger count = new AtomicInteger();
+            boolean complete = ApiService.getUserRoles(Authorization.bearer("a1-0"), ApiFixtures.SPACE_ID, new UserRoleHandler() {
+
+                public void userRole(String userId, String role) {
+                    count.incrementAndGet();
+                }
+            });
+            // 429 response is not decoded as user roles
+            assertFalse(complete);
+            assertEquals(0, count.get());
+            assertEquals("request is retried", 3, server.getRequestCount(AssemblaStubServer.USER_ROLES));
+            // error body of 429 response is not decoded as space
+            assertNull(ApiService.getSpace(Authorization.bearer("a1-0"), ApiFixtures.SPACE_ID));
+            assertTrue(ApiService.getCircuitBreaker().isClosed());
+        } finally {
+            server.setRateLimitedRate(0);
+        }
+    }
+
+    @Test
+    public void unexpectedExceptionIsFailureOfCircuit() {
+        // HTTP client throws IllegalStateException for unknown scheme
+        ApiService.setApiUri("ftp://localhost:1/");
+        for (int i = 0; i < 5; i++) {
+            assertNull(ApiService.getSpace(Authorization.bearer("a1-0"), ApiFixtures.SPACE_ID));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, ApiService.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void errorResponseIsNotDecoded() {
+        server.setEndpointError(AssemblaStubServer.SPACE, 500);
+        server.setEndpointError(AssemblaStubServer.USER_ROLES, 404);
+        try {
+            // error object is neither decoded as space nor as array of user roles
+            assertNull(ApiService.getSpace(Authorization.bearer("a1-0"), "errors"));
+            assertFalse(ApiService.getUserRoles(Authorization.bearer("a1-0"), "errors", new UserRoleHandler() {
+
+                public void userRole(String userId, String role) {
+                    fail("error response decoded as user role");
+                }
+            }));
+        } finally {
+            server.setEndpointError(AssemblaStubServer.SPACE, 0);
+            server.setEndpointError(AssemblaStubServer.USER_ROLES, 0);
+        }
+    }
+
+    @Test
+    public void readingPagesStopsWhenApiIgnoresPagination() {
+        // every page is the same full page
+        server.setMembers(ApiService.PAGE_SIZE);
+        server.setIgnorePagination(true);
+        try {
+            final Set<String> users = Collections.synchronizedSet(new HashSet<String>());
+            assertTrue(ApiService.getUserRoles(Authorization.bearer("a1-0"), ApiFixtures.SPACE_ID, new UserRoleHandler() {
+
+                public void userRole(String userId, String role) {
+                    users.add(userId);
+                }
+            }));
+            assertEquals(ApiService.PAGE_SIZE, users.size());
+            assertTrue(server.getRequestCount(AssemblaStubServer.USER_ROLES) <= 1 + ApiService.PARALLEL_PAGES);
+        } finally {
+            server.setIgnorePagination(false);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.assembla.jenkinsci.plugin.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded stand-in of Assembla API serving OAuth token, user, space, users
+ * and user_roles endpoints from ApiFixtures, for tests and load tests. Latency,
+ * server errors (500), rate limiting (429) and errors of single endpoint can be
+ * injected. Requests of endpoint can be held until test releases them, so
+ * tests do not depend on timing.
+ *
+ * Authorization code "c" + i is exchanged for access token of user i, API key
+ * "k" + i authenticates user i. Every space has the same members.
+ *
+ * @author Damir Milovic
+ */
+public class AssemblaStubServer {
+
+    public static final String TOKEN = "token";
+    public static final String USER = "user";
+    public static final String SPACE = "space";
+    public static final String USERS = "users";
+    public static final String USER_ROLES = "user_roles";
+    private static final Pattern CODE = Pattern.compile("code=c(\\d+)");
+    private static final Pattern REFRESH_TOKEN = Pattern.compile("refresh_token=r(\\d+)");
+    private static final Pattern ACCESS_TOKEN = Pattern.compile("Bearer a(\\d+)-\\d+");
+    private static final Pattern API_KEY = Pattern.compile("k(\\d+)");
+    private static final Pattern SPACE_PATH = Pattern.compile("/v1/spaces/([^/]+)\\.json");
+    private static final Pattern SPACE_LIST_PATH = Pattern.compile("/v1/spaces/([^/]+)/(users|user_roles)\\.json");
+    private static final Pattern PAGE = Pattern.compile("per_page=(\\d+)&page=(\\d+)");
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong issuedTokens = new AtomicLong();
+    private final Random random = new Random();
+    private volatile int members = 100;
+    private volatile long latency;
+    private volatile double errorRate;
+    private volatile double rateLimitedRate;
+    private volatile int accessTokenExpiresIn = 3600;
+    private volatile boolean nonMembersDenied;
+    private volatile boolean ignorePagination;
+    private volatile Hold hold;
+    // endpoint -> status of error response
+    private final Map<String, Integer> endpointErrors = new ConcurrentHashMap<String, Integer>();
+
+    public AssemblaStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public AssemblaStubServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        releaseRequests();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return uri to be set by ApiService.setApiUri()
+     */
+    public String getUri() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setMembers(int members) {
+        this.members = members;
+    }
+
+    /**
+     * @param latency time every request takes in ms
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param errorRate fraction of requests failing with 500 Internal Server Error
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param rateLimitedRate fraction of requests refused with 429 Too Many Requests
+     */
+    public void setRateLimitedRate(double rateLimitedRate) {
+        this.rateLimitedRate = rateLimitedRate;
+    }
+
+    /**
+     * @param endpoint TOKEN, USER, SPACE, USERS or USER_ROLES
+     * @param status status of error response every request of endpoint fails
+     * with, 0 to serve endpoint again
+     */
+    public void setEndpointError(String endpoint, int status) {
+        if (status == 0) {
+            endpointErrors.remove(endpoint);
+        } else {
+            endpointErrors.put(endpoint, status);
+        }
+    }
+
+    /**
+     * @param nonMembersDenied space endpoints respond 403 Forbidden to users
+     * who are not space members (user index not less than members)
+     */
+    public void setNonMembersDenied(boolean nonMembersDenied) {
+        this.nonMembersDenied = nonMembersDenied;
+    }
+
+    /**
+     * @param ignorePagination users and user_roles endpoints ignore page
+     * parameters and return all members in every page
+     */
+    public void setIgnorePagination(boolean ignorePagination) {
+        this.ignorePagination = ignorePagination;
+    }
+
+    /**
+     * Requests of endpoint received from now on wait until releaseRequests()
+     * is called.
+     *
+     * @param endpoint TOKEN, USER, SPACE, USERS or USER_ROLES
+     */
+    public void holdRequests(String endpoint) {
+        releaseRequests();
+        hold = new Hold(endpoint);
+    }
+
+    /**
+     * Waits until count requests of held endpoint are received.
+     *
+     * @return false if they were not received in 10 seconds
+     */
+    public boolean awaitHeldRequests(int count) throws InterruptedException {
+        Hold current = hold;
+        return current != null && current.received.tryAcquire(count, 10, TimeUnit.SECONDS);
+    }
+
+    public void releaseRequests() {
+        Hold current = hold;
+        hold = null;
+        if (current != null) {
+            current.released.countDown();
+        }
+    }
+
+    public void setAccessTokenExpiresIn(int accessTokenExpiresIn) {
+        this.accessTokenExpiresIn = accessTokenExpiresIn;
+    }
+
+    /**
+     * @param endpoint TOKEN, USER, SPACE, USERS or USER_ROLES
+     * @return number of requests of endpoint received (including failed ones)
+     */
+    public int getRequestCount(String endpoint) {
+        AtomicInteger count = requestCounts.get(endpoint);
+        return (count != null) ? count.get() : 0;
+    }
+
+    public void resetRequestCounts() {
+        requestCounts.clear();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getRawQuery();
+        String endpoint = getEndpoint(path);
+        count(endpoint);
+        Hold current = hold;
+        if (current != null && current.endpoint.equals(endpoint)) {
+            current.received.release();
+            try {
+                current.released.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        double failure = random.nextDouble();
+        Integer endpointError = (endpoint != null) ? endpointErrors.get(endpoint) : null;
+        if (endpointError != null) {
+            send(exchange, endpointError, "{\"error\":\"endpoint_error\"}");
+        } else if (failure < rateLimitedRate) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 429, "{\"error\":\"rate_limited\"}");
+        } else if (failure < rateLimitedRate + errorRate) {
+            send(exchange, 500, "{\"error\":\"internal_error\"}");
+        } else if (TOKEN.equals(endpoint)) {
+            serveToken(exchange, query);
+        } else if (endpoint == null) {
+            send(exchange, 404, "{\"error\":\"not_found\"}");
+        } else {
+            Integer user = authenticate(exchange);
+            if (user == null) {
+                send(exchange, 401, "{\"error\":\"invalid_token\"}");
+            } else if (USER.equals(endpoint)) {
+                send(exchange, 200, ApiFixtures.user(user));
+            } else if (nonMembersDenied && user >= members) {
+                send(exchange, 403, "{\"error\":\"forbidden\"}");
+            } else if (SPACE.equals(endpoint)) {
+                Matcher matcher = SPACE_PATH.matcher(path);
+                matcher.matches();
+                sendConditional(exchange, ApiFixtures.space(matcher.group(1)));
+            } else {
+                serveList(exchange, path, query, endpoint);
+            }
+        }
+    }
+
+    private void serveToken(HttpExchange exchange, String query) throws IOException {
+        Matcher matcher = CODE.matcher(query != null ? query : "");
+        if (!matcher.find()) {
+            matcher = REFRESH_TOKEN.matcher(query != null ? query : "");
+            if (!matcher.find()) {
+                send(exchange, 401, "{\"error\":\"invalid_grant\"}");
+                return;
+            }
+        }
+        String user = matcher.group(1);
+        send(exchange, 200, ApiFixtures.token("a" + user + "-" + issuedTokens.incrementAndGet(), "r" + user, accessTokenExpiresIn));
+    }
+
+    private void serveList(HttpExchange exchange, String path, String query, String endpoint) throws IOException {
+        Matcher matcher = SPACE_LIST_PATH.matcher(path);
+        matcher.matches();
+        String spaceId = matcher.group(1);
+        int from = 0;
+        int to = members;
+        Matcher page = PAGE.matcher(query != null ? query : "");
+        if (page.find() && !ignorePagination) {
+            int perPage = Integer.parseInt(page.group(1));
+            from = Math.min(members, (Integer.parseInt(page.group(2)) - 1) * perPage);
+            to = Math.min(members, from + perPage);
+        }
+        if (from >= to) {
+            send(exchange, 204, null); // page after the last one
+        } else if (USERS.equals(endpoint)) {
+            sendConditional(exchange, ApiFixtures.users(from, to));
+        } else {
+            sendConditional(exchange, ApiFixtures.userRoles(spaceId, from, to));
+        }
+    }
+
+    private Integer authenticate(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        Matcher matcher = ACCESS_TOKEN.matcher(authorization != null ? authorization : "");
+        if (matcher.matches()) {
+            return Integer.valueOf(matcher.group(1));
+        }
+        String apiKey = exchange.getRequestHeaders().getFirst("X-Api-Key");
+        matcher = API_KEY.matcher(apiKey != null ? apiKey : "");
+        if (matcher.matches() && ("s" + matcher.group(1)).equals(exchange.getRequestHeaders().getFirst("X-Api-Secret"))) {
+            return Integer.valueOf(matcher.group(1));
+        }
+        return null;
+    }
+
+    private static String getEndpoint(String path) {
+        if (path.equals("/token")) {
+            return TOKEN;
+        } else if (path.equals("/v1/user.json")) {
+            return USER;
+        } else if (SPACE_PATH.matcher(path).matches()) {
+            return SPACE;
+        }
+        Matcher matcher = SPACE_LIST_PATH.matcher(path);
+        return matcher.matches() ? matcher.group(2) : null;
+    }
+
+    private void count(String endpoint) {
+        String key = (endpoint != null) ? endpoint : "unknown";
+        AtomicInteger count = requestCounts.get(key);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = requestCounts.putIfAbsent(key, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Sends content with ETag, or 304 Not Modified if client has it already.
+     */
+    private static void sendConditional(HttpExchange exchange, String content) throws IOException {
+        String etag = "\"" + Integer.toHexString(content.hashCode()) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            send(exchange, 304, null);
+        } else {
+            send(exchange, 200, content);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String content) throws IOException {
+        if (content == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] body = content.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return number of requests received per endpoint
+     */
+    public Map<String, Integer> getRequestCounts() {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> entry : requestCounts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    private static class Hold {
+
+        private final String endpoint;
+        private final Semaphore received = new Semaphore(0);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        Hold(String endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+}